@@ -34,6 +34,27 @@ public class Config {
     /** Defines the name of the exit function to be used in .s file */
     public static final String EXIT;
     
+    /** Defines the name of the read function to be used in .s file */
+    public static final String READ;
+    
+    /** Defines the name of the write function to be used in .s file */
+    public static final String WRITE;
+    
+    /** Defines the name of the mmap function to be used in .s file */
+    public static final String MMAP;
+    
+    /**
+     * The flags passed to mmap to request private, zero-filled memory
+     * ({@code MAP_PRIVATE | MAP_ANONYMOUS}) on this platform.
+     */
+    public static final int MAP_PRIVATE_ANONYMOUS;
+    
+    /** Defines the name of the clock function to be used in .s file */
+    public static final String CLOCK;
+    
+    /** The number of clock ticks per second returned by {@link #CLOCK} */
+    public static final int CLOCKS_PER_SEC;
+    
     /** The assembler directive used to define a constant string */
     public static final String DOT_STRING;
     
@@ -62,6 +83,22 @@ public class Config {
      */
     public static final String[] ASM;
     
+    /**
+     * Defines the assembler command to use for programs generated with
+     * {@code -freestanding}, which bring their own {@code _start} entry and
+     * make Linux system calls directly. {@code null} on other platforms.
+     */
+    public static final String[] ASM_FREESTANDING;
+    
+    /**
+     * Defines the assembler command to use to turn the runtime library
+     * written by {@code -emit-runtime} into an object file, which is then
+     * added to {@link #ASM} for programs generated with
+     * {@code -link-runtime}. $0 refers to the object file, $1 to the ".s"
+     * file.
+     */
+    public static final String[] ASM_RUNTIME;
+    
     /**
      * The directory from which to run the assembler. In a CYGWIN installation,
      * this can make a big difference!
@@ -88,9 +125,17 @@ public class Config {
             SCANF = "_scanf";
             CALLOC = "_calloc";
             EXIT = "_exit";
+            READ = "_read";
+            WRITE = "_write";
+            MMAP = "_mmap";
+            MAP_PRIVATE_ANONYMOUS = 0x22;
+            CLOCK = "_clock";
+            CLOCKS_PER_SEC = 1000;
             // These are set up for a Cygwin installation on C:,
             // you can change as needed.
             ASM = new String[]{"gcc", "-o", "$0", "$1"};
+            ASM_FREESTANDING = null;
+            ASM_RUNTIME = new String[]{"gcc", "-c", "-o", "$0", "$1"};
             ASM_DIR = new File("C:\\CYGWIN\\BIN");
             JAVA_EXE = "javaw.exe";
             DOT_STRING = ".string";
@@ -107,7 +152,15 @@ public class Config {
             SCANF = "_scanf";
             CALLOC = "_calloc";
             EXIT = "_exit";
+            READ = "_read";
+            WRITE = "_write";
+            MMAP = "_mmap";
+            MAP_PRIVATE_ANONYMOUS = 0x1002;
+            CLOCK = "_clock";
+            CLOCKS_PER_SEC = 1000000;
             ASM = new String[]{"gcc", "-m32", "-o", "$0", "$1"};
+            ASM_FREESTANDING = null;
+            ASM_RUNTIME = new String[]{"gcc", "-m32", "-c", "-o", "$0", "$1"};
             ASM_DIR = new File(".");
             JAVA_EXE = "java";
             DOT_STRING = ".asciz";
@@ -124,7 +177,15 @@ public class Config {
             SCANF = "scanf";
             CALLOC = "calloc";
             EXIT = "exit";
+            READ = "read";
+            WRITE = "write";
+            MMAP = "mmap";
+            MAP_PRIVATE_ANONYMOUS = 0x22;
+            CLOCK = "clock";
+            CLOCKS_PER_SEC = 1000000;
             ASM = new String[]{"gcc", "-m32", "-o", "$0", "$1"};
+            ASM_FREESTANDING = new String[]{"gcc", "-m32", "-nostdlib", "-static", "-o", "$0", "$1"};
+            ASM_RUNTIME = new String[]{"gcc", "-m32", "-c", "-o", "$0", "$1"};
             ASM_DIR = new File(".");
             JAVA_EXE = "java";
             DOT_STRING = ".string";
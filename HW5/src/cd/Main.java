@@ -27,6 +27,8 @@ import cd.ir.Ast.MethodDecl;
 import cd.ir.Symbol;
 import cd.ir.Symbol.TypeSymbol;
 import cd.transform.CfgBuilder;
+import cd.transform.PassManager;
+import cd.transform.analysis.AnalysisManager;
 import cd.util.debug.AstDump;
 import cd.util.debug.CfgDump;
 
@@ -51,6 +53,30 @@ public class Main {
 	/** List of all type symbols, used by code generator. */
 	public List<TypeSymbol> allTypeSymbols;  
 
+	/** Optimization passes run before code generation, at -O0 by default. */
+	public final PassManager passes = new PassManager();
+
+	/** Set to non-null to write the time and effect of each pass */
+	public Writer passReport = null;
+
+	/** Size in bytes of the garbage-collected heap of generated programs */
+	public int heapSize = 256 << 20;
+
+	/** Whether generated programs report their garbage collections on exit */
+	public boolean gcStats = false;
+
+	/**
+	 * Whether generated programs make Linux system calls instead of calling
+	 * the C library, to be linked with {@link Config#ASM_FREESTANDING}
+	 */
+	public boolean freestanding = false;
+
+	/**
+	 * Whether generated programs leave out the runtime helpers, to be linked
+	 * with the runtime library written by {@link #generateRuntime} instead
+	 */
+	public boolean linkRuntime = false;
+
 	public void debug(String format, Object... args) {
 		if (debug != null) {
 			String result = String.format(format, args);
@@ -69,9 +95,15 @@ public class Main {
 		Main m = new Main();
 		
 		for (String arg : args) {
-			if (arg.equals("-d"))
-				m.debug = new OutputStreamWriter(System.err);
-			else {
+			boolean option;
+			try {
+				option = m.parseOption(arg);
+			} catch (IllegalArgumentException e) {
+				System.err.println("Invalid option " + arg + ": " + e.getMessage());
+				System.exit(1);
+				return;
+			}
+			if (!option) {
 				{
 					if (m.debug != null)
 						m.cfgdumpbase = new File(arg);
@@ -95,6 +127,44 @@ public class Main {
 	}
 	
 	
+	/**
+	 * Applies the command line option {@code arg}. Returns {@code false} if
+	 * it is no option, but the name of a file to compile. Throws an
+	 * {@link IllegalArgumentException} if the option's value is invalid.
+	 */
+	public boolean parseOption(String arg) throws IOException {
+		if (arg.equals("-d"))
+			debug = new OutputStreamWriter(System.err);
+		else if (arg.matches("-O[0-9]+"))
+			passes.setLevel(Integer.parseInt(arg.substring(2)));
+		else if (arg.startsWith("-enable-pass="))
+			passes.enable(arg.substring("-enable-pass=".length()));
+		else if (arg.startsWith("-disable-pass="))
+			passes.disable(arg.substring("-disable-pass=".length()));
+		else if (arg.equals("-time-passes"))
+			passReport = new OutputStreamWriter(System.err);
+		else if (arg.startsWith("-heap-size=")) {
+			String value = arg.substring("-heap-size=".length());
+			if (!value.matches("[0-9]{1,4}") || Integer.parseInt(value) < 1 || Integer.parseInt(value) > 1024)
+				throw new IllegalArgumentException("heap size must be 1 to 1024 (MiB): " + value);
+			heapSize = Integer.parseInt(value) << 20;
+		}
+		else if (arg.equals("-gc-stats"))
+			gcStats = true;
+		else if (arg.equals("-freestanding"))
+			freestanding = true;
+		else if (arg.equals("-link-runtime"))
+			linkRuntime = true;
+		else if (arg.startsWith("-emit-runtime=")) {
+			try (FileWriter fout = new FileWriter(arg.substring("-emit-runtime=".length()))) {
+				generateRuntime(fout);
+			}
+		}
+		else
+			return false;
+		return true;
+	}
+	
 	/** Parses an input stream into an AST 
 	 * @throws IOException */
 	public List<ClassDecl> parse(Reader reader) throws IOException {
@@ -137,12 +207,35 @@ public class Main {
 	}
 	
 	public void generateCode(List<ClassDecl> astRoots, Writer out) {
+		{
+			// Run the optimization pipeline:
+			passes.run(astRoots, new AnalysisManager(astRoots));
+			if (passReport != null) {
+				try {
+					passes.report(passReport);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+		
 		{
 			CfgCodeGenerator cg = new CfgCodeGenerator(this, out);
 			cg.go(astRoots);
 		}
 	}
 
+	/**
+	 * Writes the assembly of the runtime library for programs generated with
+	 * {@link #linkRuntime}. It has to be assembled with
+	 * {@link Config#ASM_RUNTIME} and added to the command assembling each
+	 * program; {@link #freestanding} programs need a runtime generated with
+	 * the same option.
+	 */
+	public void generateRuntime(Writer out) {
+		new CfgCodeGenerator(this, out).goRuntime();
+	}
+
 	/** Dumps the AST to the debug stream */
 	private void dumpAst(List<ClassDecl> astRoots) throws IOException {
 		if (this.debug == null) return;
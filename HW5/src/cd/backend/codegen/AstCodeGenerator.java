@@ -1,30 +1,43 @@
 package cd.backend.codegen;
 
 import static cd.Config.MAIN;
-import static cd.Config.SCANF;
 import static cd.Config.SIZEOF_PTR;
 import static cd.backend.codegen.AssemblyEmitter.constant;
+import static cd.backend.codegen.AssemblyEmitter.labelAddress;
 import static cd.backend.codegen.AssemblyEmitter.registerOffset;
 import static cd.backend.codegen.RegisterManager.BASE_REG;
 import static cd.backend.codegen.RegisterManager.STACK_REG;
 
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import cd.Config;
 import cd.Main;
 import cd.backend.ExitCode;
+import cd.backend.codegen.InstructionSelector.Tile;
 import cd.backend.codegen.RegisterManager.Register;
 import cd.ir.Ast;
+import cd.ir.Ast.BinaryOp;
+import cd.ir.Ast.BinaryOp.BOp;
+import cd.ir.Ast.Cast;
 import cd.ir.Ast.ClassDecl;
 import cd.ir.Ast.Expr;
 import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NewArray;
+import cd.ir.Ast.Stmt;
+import cd.ir.AstVisitor;
+import cd.ir.BasicBlock;
 import cd.ir.Symbol.ArrayTypeSymbol;
 import cd.ir.Symbol.ClassSymbol;
 import cd.ir.Symbol.MethodSymbol;
 import cd.ir.Symbol.TypeSymbol;
 import cd.ir.Symbol.VariableSymbol;
+import cd.transform.analysis.CallGraph;
+import cd.util.Pair;
 
 public class AstCodeGenerator {
 
@@ -107,6 +120,12 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 	 */
 	protected int THIS_OFFSET = 8;
 
+	/**
+	 * The call graph of the program, if known. Only the methods it finds
+	 * reachable are emitted, and only the vtables they use.
+	 */
+	protected CallGraph callGraph;
+
 	/**
 	 * Name of the internal Javali$CheckCast() helper function we generate.
 	 */
@@ -138,6 +157,92 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 	 */
 	static final String ALLOC = "Javali$Alloc";
 
+	/**
+	 * Names of the words holding the next free address and the end of the
+	 * chunk of memory allocations are currently served from.
+	 */
+	static final String HEAP_PTR = "Javali$HeapPtr";
+	static final String HEAP_END = "Javali$HeapEnd";
+
+	/**
+	 * Alignment of all allocations. Two words leave room for the header of a
+	 * free chunk wherever an object dies.
+	 */
+	static final int ALLOC_ALIGN = 2 * SIZEOF_PTR;
+
+	/**
+	 * Name of the internal Javali$InitHeap() helper function we generate.
+	 */
+	static final String INIT_HEAP = "Javali$InitHeap";
+
+	/**
+	 * Name of the internal Javali$NextChunk() helper function we generate.
+	 */
+	static final String NEXT_CHUNK = "Javali$NextChunk";
+
+	/**
+	 * Name of the internal Javali$Collect() helper function we generate.
+	 */
+	static final String COLLECT = "Javali$Collect";
+
+	/** Names of the words describing the heap. */
+	static final String HEAP_START = "Javali$HeapStart";
+	static final String HEAP_LIMIT = "Javali$HeapLimit";
+	static final String FREE_LIST = "Javali$FreeList";
+
+	/** Name of the descriptor used in place of a vtable by free chunks. */
+	static final String FREE_CHUNK = "Javali$FreeChunk";
+
+	/** Names of the words holding the memory used during collections. */
+	static final String MARK_STACK = "Javali$MarkStack";
+	static final String START_BITS = "Javali$StartBits";
+
+	/** Name of the word holding the base pointer of main(). */
+	static final String STACK_BASE = "Javali$StackBase";
+
+	/** Names of the words counting collections and their pause times. */
+	static final String GC_COUNT = "Javali$GcCount";
+	static final String GC_TIME = "Javali$GcTime";
+	static final String GC_MAX_PAUSE = "Javali$GcMaxPause";
+
+	/**
+	 * Name of the internal Javali$Exit() helper function we generate. It
+	 * flushes the output buffer before exiting with the code given as its
+	 * argument.
+	 */
+	static final String EXIT = "Javali$Exit";
+
+	/**
+	 * Name of the internal Javali$Flush() helper function we generate.
+	 */
+	static final String FLUSH = "Javali$Flush";
+
+	/** Names of the output buffer and the number of bytes used in it. */
+	static final String OUT_BUF = "Javali$OutBuf";
+	static final String OUT_POS = "Javali$OutPos";
+
+	/** Name of the word holding the file descriptor the buffer is written to. */
+	static final String OUT_FD = "Javali$OutFd";
+
+	/** Size of the output buffer. */
+	static final int OUT_BUF_SIZE = 1 << 16;
+
+	/**
+	 * Name of the internal Javali$FillInput() helper function we generate.
+	 */
+	static final String FILL_INPUT = "Javali$FillInput";
+
+	/**
+	 * Names of the input buffer, the position of the next unread byte in it
+	 * and the end of the bytes read.
+	 */
+	static final String IN_BUF = "Javali$InBuf";
+	static final String IN_POS = "Javali$InPos";
+	static final String IN_END = "Javali$InEnd";
+
+	/** Size of the input buffer. */
+	static final int IN_BUF_SIZE = 1 << 16;
+
 	/**
 	 * Name of the internal Javali$PrintNewLine() helper function we generate.
 	 */
@@ -148,11 +253,37 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 	 */
 	static final String PRINT_INTEGER = "Javali$PrintInteger";
 
+	/**
+	 * Name of the internal Javali$PrintString() helper function we generate.
+	 */
+	static final String PRINT_STRING = "Javali$PrintString";
+
 	/**
 	 * Name of the internal Javali$ReadInteger() helper function we generate.
 	 */
 	static final String READ_INTEGER = "Javali$ReadInteger";
 
+	/**
+	 * Names of the functions we generate in place of the C library functions
+	 * in freestanding programs (see {@link Main#freestanding}). They take the
+	 * same arguments, but make the Linux system calls directly.
+	 */
+	static final String SYS_EXIT = "Javali$SysExit";
+	static final String SYS_READ = "Javali$SysRead";
+	static final String SYS_WRITE = "Javali$SysWrite";
+	static final String SYS_MMAP = "Javali$SysMmap";
+	static final String SYS_CLOCK = "Javali$SysClock";
+
+	/**
+	 * Names of the words holding the heap size and whether to report
+	 * collections, which programs pass to the runtime.
+	 */
+	static final String HEAP_SIZE = "Javali$HeapSize";
+	static final String GC_STATS = "Javali$GcStats";
+
+	/** Name of the entry point of freestanding programs. */
+	static final String START = "_start";
+
 	public AstCodeGeneratorRef(Main main, Writer out) {
 		super(main, out);
 
@@ -171,23 +302,150 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 		}
 
 		// emit vtables
+		Set<TypeSymbol> liveTypes = liveTypes();
 		for (TypeSymbol ts : main.allTypeSymbols)
-			emitVtable(ts);
+			if (liveTypes == null || liveTypes.contains(ts))
+				emitVtable(ts);
 
 		// Emit some useful string constants and static data:
 		emit.emitRaw(Config.DATA_STR_SECTION);
-		emit.emitLabel("STR_NL");
-		emit.emitRaw(Config.DOT_STRING + " \"\\n\"");
-		emit.emitLabel("STR_D");
-		emit.emitRaw(Config.DOT_STRING + " \"%d\"");
 		emit.emitLabel("STR_F");
 		emit.emitRaw(Config.DOT_STRING + " \"%.5f\"");
 		emit.emitLabel("SCANF_STR_F");
 		emit.emitRaw(Config.DOT_STRING + " \"%f\"");
+		String[] gcStats = { "GC: ", " collections, ", " us total pause, ", " us max pause\\n" };
+		for (int i = 0; i < gcStats.length; i++) {
+			emit.emitLabel("STR_GC_STATS" + i);
+			emit.emitRaw(Config.DOT_STRING + " \"" + gcStats[i] + "\"");
+		}
+		emit.emitRaw(Config.DATA_INT_SECTION);
+		emit.emitRaw(".p2align 2");
+		emitGlobalLabel(HEAP_SIZE);
+		emit.emitConstantData(Integer.toString(main.heapSize));
+		emitGlobalLabel(GC_STATS);
+		emit.emitConstantData(main.gcStats ? "1" : "0");
+
+		if (!main.linkRuntime)
+			emitRuntime();
+
+		emit.emitRaw(Config.TEXT_SECTION);
+
+		// Generate AST for main() method:
+		// new Main().main()
+		Ast.NewObject newMain = new Ast.NewObject("Main");
+		newMain.type = main.mainType;
+		
+		Ast.MethodCallExpr mce = new Ast.MethodCallExpr(newMain, "main", Collections.<Expr> emptyList());
+		Ast.MethodCall callMain = new Ast.MethodCall(mce);
+		mce.sym = main.mainType.getMethod("main");
+
+		// Emit the main() method:
+		// new Main().main();
+		emit.emitCommentSection("main() function");
+		emit.emitRaw(".globl " + MAIN);
+		emit.emitLabel(MAIN);
+		emit.emit("enter", "$8", "$0");
+		emit.emit("and", -16, STACK_REG);
+		emit.emitMove(BASE_REG, STACK_BASE);
+		emit.emit("call", INIT_HEAP);
+		sg.gen(callMain);
+		emit.emit("call", FLUSH);
+		if (main.gcStats) {
+			emit.emitMove(constant(2), OUT_FD); // stderr
+			emit.emit("sub", constant(16), STACK_REG);
+			String[] stats = { GC_COUNT, GC_TIME, GC_MAX_PAUSE };
+			for (int i = 0; i < gcStats.length; i++) {
+				emit.emitStore(labelAddress("STR_GC_STATS" + i), 0, STACK_REG);
+				emit.emit("call", PRINT_STRING);
+				if (i < stats.length) {
+					emit.emitMove(stats[i], Register.EAX);
+					emit.emitStore(Register.EAX, 0, STACK_REG);
+					emit.emit("call", PRINT_INTEGER);
+				}
+			}
+			emit.emit("call", FLUSH);
+		}
+		emit.emit("movl", constant(ExitCode.OK.value), Register.EAX); // normal termination:
+		emit.emitRaw("leave");
+		emit.emitRaw("ret");
+	}
+
+	/**
+	 * Emits the data and helper functions making up the runtime of the
+	 * generated programs. They are the same for every program, which only
+	 * passes its options in {@link #HEAP_SIZE} and {@link #GC_STATS}, so
+	 * programs generated with {@link Main#linkRuntime} leave them out and
+	 * are linked with a runtime library generated once instead.
+	 */
+	protected void emitRuntime() {
 		emit.emitRaw(Config.DATA_INT_SECTION);
+		emit.emitRaw(".p2align 2"); // the collector tags the address of FREE_CHUNK
+		for (String word : new String[] { HEAP_PTR, HEAP_END, HEAP_START, HEAP_LIMIT,
+				FREE_LIST, MARK_STACK, START_BITS, STACK_BASE, GC_COUNT, GC_TIME,
+				GC_MAX_PAUSE, OUT_POS, IN_POS, IN_END }) {
+			emitGlobalLabel(word);
+			emit.emitConstantData("0");
+		}
+		emit.emitConstantData("-1");
+		emit.emitConstantData("0");
+		emitGlobalLabel(FREE_CHUNK);
+		emit.emitConstantData("0");
+		emitGlobalLabel(OUT_FD);
+		emit.emitConstantData("1"); // stdout
+		emit.emitRaw(String.format(".comm %s, %d", OUT_BUF, OUT_BUF_SIZE));
+		emit.emitRaw(String.format(".comm %s, %d", IN_BUF, IN_BUF_SIZE));
 
 		emit.emitRaw(Config.TEXT_SECTION);
 
+		if (main.freestanding)
+			emitSystemCalls();
+
+		// Generate a helper method writing out the output buffer
+		{
+			Register count = RegisterManager.CALLER_SAVE[0];
+			String looplbl = emit.uniqueLabel();
+			String donelbl = emit.uniqueLabel();
+			emit.emitCommentSection(FLUSH + " function");
+			emitGlobalLabel(FLUSH);
+			emit.emit("enter", "$8", "$0");
+			emit.emit("and", constant(-16), STACK_REG);
+			emit.emit("sub", constant(16), STACK_REG);
+			emit.emitStore(constant(0), -4, BASE_REG); // bytes written
+			emit.emitLabel(looplbl);
+			emit.emitMove(OUT_POS, count);
+			emit.emit("subl", registerOffset(-4, BASE_REG), count);
+			emit.emit("jle", donelbl);
+			emit.emitStore(count, 8, STACK_REG);
+			emit.emitLoad(-4, BASE_REG, count);
+			emit.emit("addl", labelAddress(OUT_BUF), count);
+			emit.emitStore(count, 4, STACK_REG);
+			emit.emitMove(OUT_FD, count);
+			emit.emitStore(count, 0, STACK_REG);
+			emit.emit("call", libc(Config.WRITE, SYS_WRITE));
+			emit.emit("testl", Register.EAX, Register.EAX);
+			emit.emit("jle", donelbl);
+			emit.emit("addl", Register.EAX, registerOffset(-4, BASE_REG));
+			emit.emit("jmp", looplbl);
+			emit.emitLabel(donelbl);
+			emit.emitMove(constant(0), OUT_POS);
+			emit.emitRaw("leave");
+			emit.emitRaw("ret");
+		}
+
+		// Generate a helper method for exiting
+		{
+			Register code = RegisterManager.CALLER_SAVE[0];
+			emit.emitCommentSection(EXIT + " function");
+			emitGlobalLabel(EXIT);
+			emit.emit("enter", "$8", "$0");
+			emit.emit("and", constant(-16), STACK_REG);
+			emit.emit("sub", constant(16), STACK_REG);
+			emit.emit("call", FLUSH);
+			emit.emitLoad(8, BASE_REG, code);
+			emit.emitStore(code, 0, STACK_REG);
+			emit.emit("call", libc(Config.EXIT, SYS_EXIT));
+		}
+
 		// Generate a helper method for checking casts:
 		// It takes first a vtable and second an object ptr.
 		{
@@ -197,7 +455,7 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 			String donelbl = emit.uniqueLabel();
 			String faillbl = emit.uniqueLabel();
 			emit.emitCommentSection(CHECK_CAST + " function");
-			emit.emitLabel(CHECK_CAST);
+			emitGlobalLabel(CHECK_CAST);
 			emit.emit("enter", "$8", "$0");
 			emit.emit("and", constant(-16), STACK_REG);
 			emit.emit("sub", constant(16), STACK_REG);
@@ -215,7 +473,7 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 			emit.emit("jmp", looplbl);
 			emit.emitLabel(faillbl);
 			emit.emitStore(constant(ExitCode.INVALID_DOWNCAST.value), 0, STACK_REG);
-			emit.emit("call", Config.EXIT);
+			emit.emit("call", EXIT);
 			emit.emitLabel(donelbl);
 			emit.emitRaw("leave");
 			emit.emitRaw("ret");
@@ -225,14 +483,14 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 		{
 			String oknulllbl = emit.uniqueLabel();
 			emit.emitCommentSection(CHECK_NULL + " function");
-			emit.emitLabel(CHECK_NULL);
+			emitGlobalLabel(CHECK_NULL);
 			emit.emit("enter", "$8", "$0");
 			emit.emit("and", constant(-16), STACK_REG);
 			emit.emit("sub", constant(16), STACK_REG);
 			emit.emit("cmpl", constant(0), registerOffset(SIZEOF_PTR * 2, BASE_REG));
 			emit.emit("jne", oknulllbl);
 			emit.emitStore(constant(ExitCode.NULL_POINTER.value), 0, STACK_REG);
-			emit.emit("call", Config.EXIT);
+			emit.emit("call", EXIT);
 			emit.emitLabel(oknulllbl);
 			emit.emitRaw("leave");
 			emit.emitRaw("ret");
@@ -242,14 +500,14 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 		{
 			String oknzlbl = emit.uniqueLabel();
 			emit.emitCommentSection(CHECK_NON_ZERO + " function");
-			emit.emitLabel(CHECK_NON_ZERO);
+			emitGlobalLabel(CHECK_NON_ZERO);
 			emit.emit("enter", "$8", "$0");
 			emit.emit("and", constant(-16), STACK_REG);
 			emit.emit("sub", constant(16), STACK_REG);
 			emit.emit("cmpl", constant(0), registerOffset(SIZEOF_PTR * 2, BASE_REG));
 			emit.emit("jne", oknzlbl);
 			emit.emitStore(constant(ExitCode.DIVISION_BY_ZERO.value), 0, STACK_REG);
-			emit.emit("call", Config.EXIT);
+			emit.emit("call", EXIT);
 			emit.emitLabel(oknzlbl);
 			emit.emitRaw("leave");
 			emit.emitRaw("ret");
@@ -259,14 +517,14 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 		{
 			String okunqlbl = emit.uniqueLabel();
 			emit.emitCommentSection(CHECK_ARRAY_SIZE + " function");
-			emit.emitLabel(CHECK_ARRAY_SIZE);
+			emitGlobalLabel(CHECK_ARRAY_SIZE);
 			emit.emit("enter", "$8", "$0");
 			emit.emit("and", constant(-16), STACK_REG);
 			emit.emit("sub", constant(16), STACK_REG);
 			emit.emit("cmpl", constant(0), registerOffset(SIZEOF_PTR * 2, BASE_REG));
 			emit.emit("jge", okunqlbl);
 			emit.emitStore(constant(ExitCode.INVALID_ARRAY_SIZE.value), 0, STACK_REG);
-			emit.emit("call", Config.EXIT);
+			emit.emit("call", EXIT);
 			emit.emitLabel(okunqlbl);
 			emit.emitRaw("leave");
 			emit.emitRaw("ret");
@@ -278,7 +536,7 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 			Register idx = RegisterManager.CALLER_SAVE[1];
 			String faillbl = emit.uniqueLabel();
 			emit.emitCommentSection(CHECK_ARRAY_BOUNDS + " function");
-			emit.emitLabel(CHECK_ARRAY_BOUNDS);
+			emitGlobalLabel(CHECK_ARRAY_BOUNDS);
 			emit.emit("enter", "$8", "$0");
 			emit.emit("and", constant(-16), STACK_REG);
 			emit.emit("sub", constant(16), STACK_REG);
@@ -294,93 +552,289 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 			// fail
 			emit.emitLabel(faillbl);
 			emit.emitStore(constant(ExitCode.INVALID_ARRAY_BOUNDS.value), 0, STACK_REG);
-			emit.emit("call", Config.EXIT);
+			emit.emit("call", EXIT);
 
 		}
 
-		// Generate a helper method for allocating objects/arrays
+		// Generate a helper method for allocating objects/arrays. Memory is
+		// taken from the current free chunk by bumping HEAP_PTR. When the
+		// chunk is exhausted, the next large enough chunk is taken from the
+		// free list, collecting garbage first if there is none.
 		{
 			Register size = RegisterManager.CALLER_SAVE[0];
+			Register ptr = RegisterManager.CALLER_SAVE[1];
+			Register top = RegisterManager.CALLER_SAVE[2];
+			String retrylbl = emit.uniqueLabel();
+			String refilllbl = emit.uniqueLabel();
+			String faillbl = emit.uniqueLabel();
 			emit.emitCommentSection(ALLOC + " function");
-			emit.emitLabel(ALLOC);
+			emitGlobalLabel(ALLOC);
 			emit.emit("enter", "$8", "$0");
 			emit.emit("and", constant(-16), STACK_REG);
 			emit.emit("sub", constant(16), STACK_REG);
+			emit.emitStore(constant(0), -4, BASE_REG); // not collected yet
+			emit.emitLabel(retrylbl);
 			emit.emitLoad(8, BASE_REG, size);
-			emit.emitStore(size, 0, STACK_REG);
-			emit.emitStore(constant(1), 4, STACK_REG);
-			emit.emit("call", Config.CALLOC);
+			emit.emit("addl", constant(ALLOC_ALIGN - 1), size);
+			emit.emit("andl", constant(-ALLOC_ALIGN), size);
+			emit.emitMove(HEAP_PTR, ptr);
+			emit.emit("leal", String.format("(%s,%s)", ptr, size), top);
+			emit.emit("cmpl", HEAP_END, top);
+			emit.emit("ja", refilllbl);
+			emit.emitMove(top, HEAP_PTR);
+			emit.emitMove(ptr, Register.EAX);
 			emit.emitRaw("leave");
 			emit.emitRaw("ret");
+			emit.emitLabel(refilllbl);
+			emit.emitStore(size, 0, STACK_REG);
+			emit.emit("call", NEXT_CHUNK);
+			emit.emit("testl", Register.EAX, Register.EAX);
+			emit.emit("jnz", retrylbl);
+			emit.emit("cmpl", constant(0), registerOffset(-4, BASE_REG));
+			emit.emit("jne", faillbl);
+			emit.emitStore(constant(1), -4, BASE_REG);
+			emit.emitLoad(0, BASE_REG, size); // base pointer of our caller
+			emit.emitStore(size, 0, STACK_REG);
+			emit.emit("call", COLLECT);
+			emit.emit("jmp", retrylbl);
+			emit.emitLabel(faillbl); // out of memory
+			emit.emitStore(constant(ExitCode.INTERNAL_ERROR.value), 0, STACK_REG);
+			emit.emit("call", EXIT);
 		}
 
+		emitGarbageCollector();
+
 		// Generate a helper method for printing a new line
 		{
+			Register pos = RegisterManager.CALLER_SAVE[0];
+			String roomlbl = emit.uniqueLabel();
 			emit.emitCommentSection(PRINT_NEW_LINE + " function");
-			emit.emitLabel(PRINT_NEW_LINE);
+			emitGlobalLabel(PRINT_NEW_LINE);
 			emit.emit("enter", "$8", "$0");
 			emit.emit("and", constant(-16), STACK_REG);
 			emit.emit("sub", constant(16), STACK_REG);
-			emit.emitStore("$STR_NL", 0, STACK_REG);
-			emit.emit("call", Config.PRINTF);
+			emit.emit("cmpl", constant(OUT_BUF_SIZE), OUT_POS);
+			emit.emit("jl", roomlbl);
+			emit.emit("call", FLUSH);
+			emit.emitLabel(roomlbl);
+			emit.emitMove(OUT_POS, pos);
+			emit.emit("movb", constant('\n'), String.format("%s(%s)", OUT_BUF, pos));
+			emit.emit("incl", pos);
+			emit.emitMove(pos, OUT_POS);
 			emit.emitRaw("leave");
 			emit.emitRaw("ret");
 		}
 
-		// Generate a helper method for printing an integer
+		// Generate a helper method for printing an integer. The digits are
+		// produced backwards into the 16 bytes above the stack pointer, and
+		// then copied to the output buffer.
 		{
-			Register temp = RegisterManager.CALLER_SAVE[0];
+			Register value = RegisterManager.CALLER_SAVE[0];
+			Register digit = RegisterManager.CALLER_SAVE[2];
+			Register ptr = RegisterManager.CALLER_SAVE[1];
+			String roomlbl = emit.uniqueLabel();
+			String positivelbl = emit.uniqueLabel();
+			String digitlbl = emit.uniqueLabel();
+			String copylbl = emit.uniqueLabel();
+			String looplbl = emit.uniqueLabel();
+			String donelbl = emit.uniqueLabel();
 			emit.emitCommentSection(PRINT_INTEGER + " function");
-			emit.emitLabel(PRINT_INTEGER);
+			emitGlobalLabel(PRINT_INTEGER);
+			emit.emit("enter", "$8", "$0");
+			emit.emit("and", constant(-16), STACK_REG);
+			emit.emit("sub", constant(32), STACK_REG);
+			// room for a sign and ten digits
+			emit.emit("cmpl", constant(OUT_BUF_SIZE - 11), OUT_POS);
+			emit.emit("jle", roomlbl);
+			emit.emit("call", FLUSH);
+			emit.emitLabel(roomlbl);
+			emit.emitLoad(8, BASE_REG, value);
+			emit.emitStore(value, -4, BASE_REG); // sign
+			emit.emit("testl", value, value);
+			emit.emit("jns", positivelbl);
+			emit.emit("negl", value); // also right for the smallest int, as unsigned
+			emit.emitLabel(positivelbl);
+			emit.emit("leal", registerOffset(32, STACK_REG), ptr);
+			emit.emitStore(constant(10), -8, BASE_REG);
+			emit.emitLabel(digitlbl);
+			emit.emit("xorl", digit, digit);
+			emit.emit("divl", registerOffset(-8, BASE_REG));
+			emit.emit("addl", constant('0'), digit);
+			emit.emit("decl", ptr);
+			emit.emit("movb", digit.lowByteVersion().repr, String.format("(%s)", ptr));
+			emit.emit("testl", value, value);
+			emit.emit("jnz", digitlbl);
+			emit.emit("cmpl", constant(0), registerOffset(-4, BASE_REG));
+			emit.emit("jge", copylbl);
+			emit.emit("decl", ptr);
+			emit.emit("movb", constant('-'), String.format("(%s)", ptr));
+			emit.emitLabel(copylbl);
+			emit.emit("leal", registerOffset(32, STACK_REG), value);
+			emit.emitStore(value, -8, BASE_REG); // end of the digits
+			emit.emitMove(OUT_POS, digit);
+			emit.emitLabel(looplbl);
+			emit.emit("cmpl", registerOffset(-8, BASE_REG), ptr);
+			emit.emit("jae", donelbl);
+			emit.emit("movb", String.format("(%s)", ptr), value.lowByteVersion().repr);
+			emit.emit("movb", value.lowByteVersion().repr, String.format("%s(%s)", OUT_BUF, digit));
+			emit.emit("incl", ptr);
+			emit.emit("incl", digit);
+			emit.emit("jmp", looplbl);
+			emit.emitLabel(donelbl);
+			emit.emitMove(digit, OUT_POS);
+			emit.emitRaw("leave");
+			emit.emitRaw("ret");
+		}
+
+		// Generate a helper method for printing a zero-terminated string
+		{
+			Register ch = RegisterManager.CALLER_SAVE[0];
+			Register ptr = RegisterManager.CALLER_SAVE[1];
+			Register pos = RegisterManager.CALLER_SAVE[2];
+			String looplbl = emit.uniqueLabel();
+			String roomlbl = emit.uniqueLabel();
+			String donelbl = emit.uniqueLabel();
+			emit.emitCommentSection(PRINT_STRING + " function");
+			emitGlobalLabel(PRINT_STRING);
+			emit.emit("enter", "$8", "$0");
+			emit.emit("and", constant(-16), STACK_REG);
+			emit.emit("sub", constant(16), STACK_REG);
+			emit.emitLabel(looplbl);
+			emit.emit("cmpl", constant(OUT_BUF_SIZE), OUT_POS);
+			emit.emit("jl", roomlbl);
+			emit.emit("call", FLUSH);
+			emit.emitLabel(roomlbl);
+			emit.emitLoad(8, BASE_REG, ptr);
+			emit.emit("movb", String.format("(%s)", ptr), ch.lowByteVersion().repr);
+			emit.emit("testb", ch.lowByteVersion().repr, ch.lowByteVersion().repr);
+			emit.emit("jz", donelbl);
+			emit.emitMove(OUT_POS, pos);
+			emit.emit("movb", ch.lowByteVersion().repr, String.format("%s(%s)", OUT_BUF, pos));
+			emit.emit("incl", pos);
+			emit.emitMove(pos, OUT_POS);
+			emit.emit("incl", registerOffset(8, BASE_REG));
+			emit.emit("jmp", looplbl);
+			emit.emitLabel(donelbl);
+			emit.emitRaw("leave");
+			emit.emitRaw("ret");
+		}
+
+		// Generate a helper method refilling the input buffer. Returns zero
+		// at the end of the input.
+		{
+			String eoflbl = emit.uniqueLabel();
+			emit.emitCommentSection(FILL_INPUT + " function");
+			emitGlobalLabel(FILL_INPUT);
 			emit.emit("enter", "$8", "$0");
 			emit.emit("and", constant(-16), STACK_REG);
 			emit.emit("sub", constant(16), STACK_REG);
-			emit.emitLoad(8, BASE_REG, temp);
-			emit.emitStore(temp, 4, STACK_REG);
-			emit.emitStore("$STR_D", 0, STACK_REG);
-			emit.emit("call", Config.PRINTF);
+			emit.emit("call", FLUSH); // show any prompt before waiting for input
+			emit.emitStore(constant(IN_BUF_SIZE), 8, STACK_REG);
+			emit.emitStore(labelAddress(IN_BUF), 4, STACK_REG);
+			emit.emitStore(constant(0), 0, STACK_REG); // stdin
+			emit.emit("call", libc(Config.READ, SYS_READ));
+			emit.emitMove(constant(0), IN_POS);
+			emit.emit("testl", Register.EAX, Register.EAX);
+			emit.emit("jle", eoflbl);
+			emit.emitMove(Register.EAX, IN_END);
+			emit.emitRaw("leave");
+			emit.emitRaw("ret");
+			emit.emitLabel(eoflbl);
+			emit.emitMove(constant(0), IN_END);
+			emit.emit("xorl", Register.EAX, Register.EAX);
 			emit.emitRaw("leave");
 			emit.emitRaw("ret");
 		}
 
-		// Generate a helper method for reading an integer
+		// Generate a helper method for reading an integer. Like scanf("%d"),
+		// it skips white space, accepts a sign and leaves the first byte
+		// after the digits unread. If there is no number to read, e.g. at the
+		// end of the input, the result is 0.
 		{
-			Register number = RegisterManager.CALLER_SAVE[0];
+			Register ch = RegisterManager.CALLER_SAVE[0];
+			Register value = RegisterManager.CALLER_SAVE[2];
+			String skiplbl = emit.uniqueLabel();
+			String spacelbl = emit.uniqueLabel();
+			String signlbl = emit.uniqueLabel();
+			String minuslbl = emit.uniqueLabel();
+			String pluslbl = emit.uniqueLabel();
+			String firstlbl = emit.uniqueLabel();
+			String digitlbl = emit.uniqueLabel();
+			String endlbl = emit.uniqueLabel();
+			String faillbl = emit.uniqueLabel();
 			emit.emitCommentSection(READ_INTEGER + " function");
-			emit.emitLabel(READ_INTEGER);
+			emitGlobalLabel(READ_INTEGER);
 			emit.emit("enter", "$8", "$0");
 			emit.emit("and", constant(-16), STACK_REG);
 			emit.emit("sub", constant(16), STACK_REG);
-			emit.emit("leal", registerOffset(8, STACK_REG), number);
-			emit.emitStore(number, 4, STACK_REG);
-			emit.emitStore("$STR_D", 0, STACK_REG);
-			emit.emit("call", SCANF);
+			emit.emitStore(constant(0), 8, STACK_REG);
+			emit.emitLabel(skiplbl);
+			emitPeekInput(faillbl, null);
+			emit.emit("cmpl", constant(' '), ch);
+			emit.emit("je", spacelbl);
+			emit.emit("cmpl", constant('\t'), ch);
+			emit.emit("jb", signlbl);
+			emit.emit("cmpl", constant('\r'), ch);
+			emit.emit("ja", signlbl);
+			emit.emitLabel(spacelbl);
+			emit.emit("incl", IN_POS);
+			emit.emit("jmp", skiplbl);
+			emit.emitLabel(signlbl);
+			emit.emitStore(constant(0), -4, BASE_REG); // negative?
+			emit.emit("cmpl", constant('-'), ch);
+			emit.emit("je", minuslbl);
+			emit.emit("cmpl", constant('+'), ch);
+			emit.emit("je", pluslbl);
+			emit.emit("jmp", firstlbl);
+			emit.emitLabel(minuslbl);
+			emit.emitStore(constant(1), -4, BASE_REG);
+			emit.emitLabel(pluslbl);
+			emit.emit("incl", IN_POS);
+			emitPeekInput(faillbl, null);
+			emit.emitLabel(firstlbl);
+			emit.emit("subl", constant('0'), ch);
+			emit.emit("cmpl", constant(9), ch);
+			emit.emit("ja", faillbl);
+			emit.emit("xorl", value, value);
+			emit.emitLabel(digitlbl);
+			emit.emit("imull", constant(10), value);
+			emit.emit("addl", ch, value);
+			emit.emit("incl", IN_POS);
+			emitPeekInput(endlbl, value);
+			emit.emit("subl", constant('0'), ch);
+			emit.emit("cmpl", constant(9), ch);
+			emit.emit("jbe", digitlbl);
+			emit.emitLabel(endlbl);
+			emit.emit("cmpl", constant(0), registerOffset(-4, BASE_REG));
+			String storelbl = emit.uniqueLabel();
+			emit.emit("je", storelbl);
+			emit.emit("negl", value);
+			emit.emitLabel(storelbl);
+			emit.emitStore(value, 8, STACK_REG);
+			emit.emitLabel(faillbl);
 			emit.emitLoad(8, STACK_REG, Register.EAX);
 			emit.emitRaw("leave");
 			emit.emitRaw("ret");
 		}
 
-		// Generate AST for main() method:
-		// new Main().main()
-		Ast.NewObject newMain = new Ast.NewObject("Main");
-		newMain.type = main.mainType;
-		
-		Ast.MethodCallExpr mce = new Ast.MethodCallExpr(newMain, "main", Collections.<Expr> emptyList());
-		Ast.MethodCall callMain = new Ast.MethodCall(mce);
-		mce.sym = main.mainType.getMethod("main");
-
-		// Emit the main() method:
-		// new Main().main();
-		emit.emitCommentSection("main() function");
-		emit.emitRaw(".globl " + MAIN);
-		emit.emitLabel(MAIN);
-		emit.emit("enter", "$8", "$0");
-		emit.emit("and", -16, STACK_REG);
-		sg.gen(callMain);
-		emit.emit("movl", constant(ExitCode.OK.value), Register.EAX); // normal termination:
-		emit.emitRaw("leave");
-		emit.emitRaw("ret");
+		// Freestanding programs start out with the stack holding argc and
+		// argv, and exit with the return value of main().
+		if (main.freestanding) {
+			emit.emitCommentSection(START + " function");
+			emitGlobalLabel(START);
+			emit.emit("xorl", BASE_REG, BASE_REG);
+			emit.emit("and", constant(-16), STACK_REG);
+			emit.emit("call", MAIN);
+			emit.emit("sub", constant(16), STACK_REG);
+			emit.emitStore(Register.EAX, 0, STACK_REG);
+			emit.emit("call", SYS_EXIT);
+		}
+	}
 
+	/** Emits a label which is visible to other object files. */
+	private void emitGlobalLabel(String label) {
+		emit.emitRaw(".globl " + label);
+		emit.emitLabel(label);
 	}
 
 	@Override
@@ -437,6 +891,532 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 		return index;
 	}
 
+	/**
+	 * Returns the function to call in place of the C library function
+	 * <code>function</code>: the function <code>stub</code> making the
+	 * system call directly in freestanding programs.
+	 */
+	private String libc(String function, String stub) {
+		return main.freestanding ? stub : function;
+	}
+
+	/**
+	 * Emits the functions making Linux system calls in place of the C
+	 * library functions in freestanding programs. Like the C library, they
+	 * return <code>-1</code> on failure.
+	 */
+	private void emitSystemCalls() {
+		emitSystemCall(SYS_EXIT, 1, 1);
+		emitSystemCall(SYS_READ, 3, 3);
+		emitSystemCall(SYS_WRITE, 4, 3);
+		// mmap2 takes the offset in pages, which is zero for us anyway.
+		emitSystemCall(SYS_MMAP, 192, 6);
+
+		// clock() is the CPU time of the process in microseconds, which
+		// clock_gettime(CLOCK_PROCESS_CPUTIME_ID) gives as a timespec.
+		emit.emitCommentSection(SYS_CLOCK + " function");
+		emitGlobalLabel(SYS_CLOCK);
+		emit.emit("push", Register.EBX);
+		emit.emit("sub", constant(8), STACK_REG);
+		emit.emit("movl", constant(265), Register.EAX);
+		emit.emit("movl", constant(2), Register.EBX);
+		emit.emitMove(STACK_REG, Register.ECX);
+		emit.emitRaw("int $0x80");
+		emit.emitLoad(4, STACK_REG, Register.EAX); // nanoseconds
+		emit.emit("xorl", Register.EDX, Register.EDX);
+		emit.emit("movl", constant(1000), Register.ECX);
+		emit.emit("divl", Register.ECX);
+		emit.emitLoad(0, STACK_REG, Register.ECX); // seconds
+		emit.emit("imull", constant(1000000), Register.ECX);
+		emit.emit("addl", Register.ECX, Register.EAX);
+		emit.emit("add", constant(8), STACK_REG);
+		emit.emit("pop", Register.EBX);
+		emit.emitRaw("ret");
+	}
+
+	/**
+	 * Emits a function <code>name</code> making the system call
+	 * <code>number</code> with its first <code>args</code> arguments.
+	 */
+	private void emitSystemCall(String name, int number, int args) {
+		Register[] regs = { Register.EBX, Register.ECX, Register.EDX, Register.ESI,
+				Register.EDI, BASE_REG };
+		Register[] saved = { Register.EBX, Register.ESI, Register.EDI, BASE_REG };
+		String donelbl = emit.uniqueLabel();
+		emit.emitCommentSection(name + " function");
+		emitGlobalLabel(name);
+		for (Register reg : saved)
+			emit.emit("push", reg);
+		for (int i = 0; i < args; i++)
+			emit.emitLoad(4 * (saved.length + 1 + i), STACK_REG, regs[i]);
+		emit.emit("movl", constant(number), Register.EAX);
+		emit.emitRaw("int $0x80");
+		// The kernel returns errors as -4095..-1.
+		emit.emit("cmpl", constant(-4096), Register.EAX);
+		emit.emit("jbe", donelbl);
+		emit.emit("movl", constant(-1), Register.EAX);
+		emit.emitLabel(donelbl);
+		for (int i = saved.length - 1; i >= 0; i--)
+			emit.emit("pop", saved[i]);
+		emit.emitRaw("ret");
+	}
+
+	/**
+	 * Emits a call mapping fresh zero-filled memory, whose length has to be
+	 * stored at <code>4(%esp)</code> already. The address ends up in
+	 * <code>%eax</code>; if no memory is left, jumps to <code>faillbl</code>.
+	 */
+	private void emitMmap(String faillbl) {
+		emit.emitStore(constant(0), 0, STACK_REG);
+		emit.emitStore(constant(3), 8, STACK_REG); // PROT_READ | PROT_WRITE
+		emit.emitStore(constant(Config.MAP_PRIVATE_ANONYMOUS), 12, STACK_REG);
+		emit.emitStore(constant(-1), 16, STACK_REG);
+		emit.emitStore(constant(0), 20, STACK_REG);
+		emit.emit("call", libc(Config.MMAP, SYS_MMAP));
+		emit.emit("cmpl", constant(-1), Register.EAX);
+		emit.emit("je", faillbl);
+	}
+
+	/**
+	 * Emits the helper functions managing the heap. The heap is a single
+	 * mapping of {@link Main#heapSize} bytes, covered completely by objects
+	 * and free chunks, so that it can be walked from start to end. The size
+	 * of an object is found in front of its vtable, along with the offsets
+	 * of its fields holding references (see {@link #emitVtable}). A free
+	 * chunk has {@link #FREE_CHUNK} in place of a vtable, followed by its
+	 * size and, if there is room, the next chunk in the free list. Apart
+	 * from these headers, free memory is always zero.
+	 * <p>
+	 * Garbage is collected by marking and sweeping. Objects are never
+	 * moved, which allows values in registers and temporaries whose type
+	 * is unknown to be treated as possible references: the frame of every
+	 * method records which of its parameters and locals hold references
+	 * (see {@link #emitMethodPrefix}), and the rest of the stack is scanned
+	 * for words pointing to the start of an object.
+	 */
+	private void emitGarbageCollector() {
+		int alignShift = Integer.numberOfTrailingZeros(ALLOC_ALIGN);
+
+		// Generate a helper method mapping the heap, which starts out as a
+		// single free chunk, and the memory used during collections.
+		{
+			Register heap = RegisterManager.CALLER_SAVE[0];
+			Register size = RegisterManager.CALLER_SAVE[1];
+			String faillbl = emit.uniqueLabel();
+			emit.emitCommentSection(INIT_HEAP + " function");
+			emitGlobalLabel(INIT_HEAP);
+			emit.emit("enter", "$8", "$0");
+			emit.emit("and", constant(-16), STACK_REG);
+			emit.emit("sub", constant(32), STACK_REG);
+			emit.emitMove(HEAP_SIZE, size);
+			emit.emitStore(size, 4, STACK_REG);
+			emitMmap(faillbl);
+			emit.emitMove(heap, HEAP_START);
+			emit.emitMove(heap, FREE_LIST);
+			emit.emitStore(labelAddress(FREE_CHUNK), 0, heap);
+			emit.emitMove(HEAP_SIZE, size);
+			emit.emitStore(size, 4, heap);
+			emit.emit("addl", size, heap);
+			emit.emitMove(heap, HEAP_LIMIT);
+			// Every object may end up on the mark stack, and there is one bit
+			// for every possible start of an object.
+			emit.emitMove(HEAP_SIZE, size);
+			emit.emit("shrl", constant(alignShift - Integer.numberOfTrailingZeros(SIZEOF_PTR)), size);
+			emit.emitStore(size, 4, STACK_REG);
+			emitMmap(faillbl);
+			emit.emitMove(Register.EAX, MARK_STACK);
+			emit.emitMove(HEAP_SIZE, size);
+			emit.emit("shrl", constant(alignShift + 3), size);
+			emit.emitStore(size, 4, STACK_REG);
+			emitMmap(faillbl);
+			emit.emitMove(Register.EAX, START_BITS);
+			emit.emitRaw("leave");
+			emit.emitRaw("ret");
+			emit.emitLabel(faillbl);
+			emit.emitStore(constant(ExitCode.INTERNAL_ERROR.value), 0, STACK_REG);
+			emit.emit("call", EXIT);
+		}
+
+		// Generate a helper method taking the first free chunk of at least
+		// the size given as its argument off the free list, and making it the
+		// current chunk. Returns zero if there is none.
+		{
+			Register size = RegisterManager.CALLER_SAVE[0];
+			Register link = RegisterManager.CALLER_SAVE[1];
+			Register chunk = RegisterManager.CALLER_SAVE[2];
+			String searchlbl = emit.uniqueLabel();
+			String looplbl = emit.uniqueLabel();
+			String foundlbl = emit.uniqueLabel();
+			String nonelbl = emit.uniqueLabel();
+			emit.emitCommentSection(NEXT_CHUNK + " function");
+			emitGlobalLabel(NEXT_CHUNK);
+			// the rest of the current chunk becomes a free chunk of its own
+			emit.emitMove(HEAP_PTR, link);
+			emit.emitMove(HEAP_END, chunk);
+			emit.emit("subl", link, chunk);
+			emit.emit("jz", searchlbl);
+			emit.emitStore(labelAddress(FREE_CHUNK), 0, link);
+			emit.emitStore(chunk, 4, link);
+			emit.emitLabel(searchlbl);
+			emit.emitLoad(4, STACK_REG, size);
+			emit.emit("movl", labelAddress(FREE_LIST), link);
+			emit.emitLabel(looplbl);
+			emit.emitLoad(0, link, chunk);
+			emit.emit("testl", chunk, chunk);
+			emit.emit("jz", nonelbl);
+			emit.emit("cmpl", registerOffset(4, chunk), size);
+			emit.emit("jbe", foundlbl);
+			emit.emit("leal", registerOffset(8, chunk), link);
+			emit.emit("jmp", looplbl);
+			emit.emitLabel(foundlbl);
+			emit.emitLoad(8, chunk, size);
+			emit.emitStore(size, 0, link);
+			emit.emitMove(chunk, HEAP_PTR);
+			emit.emitLoad(4, chunk, size);
+			emit.emit("addl", chunk, size);
+			emit.emitMove(size, HEAP_END);
+			emit.emitStore(constant(0), 0, chunk);
+			emit.emitStore(constant(0), 4, chunk);
+			emit.emitStore(constant(0), 8, chunk);
+			emit.emit("movl", constant(1), Register.EAX);
+			emit.emitRaw("ret");
+			emit.emitLabel(nonelbl);
+			emit.emitMove(constant(0), HEAP_PTR);
+			emit.emitMove(constant(0), HEAP_END);
+			emit.emit("xorl", Register.EAX, Register.EAX);
+			emit.emitRaw("ret");
+		}
+
+		// Generate a helper method collecting garbage. Its argument is the
+		// base pointer of the innermost Javali method, whose frame and those
+		// of its callers are searched for references. Registers are used as
+		// follows: %edi is the top of the mark stack, and %esi and %ebx hold
+		// the pointers being walked. The local variables are:
+		// -16: frame map of the current frame
+		// -20: end of the stack words to scan
+		// -24: number of references left to visit
+		// -28: link to append the next free chunk to
+		// -32: clock at the start of the collection
+		{
+			Register obj = Register.EBX;
+			Register ptr = Register.ESI;
+			Register top = Register.EDI;
+			String sizelbl = emit.uniqueLabel();
+			String marklbl = emit.uniqueLabel();
+			String maybelbl = emit.uniqueLabel();
+			String flushlbl = emit.uniqueLabel();
+			String bitslbl = emit.uniqueLabel();
+			String nobitlbl = emit.uniqueLabel();
+			String rootslbl = emit.uniqueLabel();
+			String framelbl = emit.uniqueLabel();
+			String stacklbl = emit.uniqueLabel();
+			String slotslbl = emit.uniqueLabel();
+			String slotlbl = emit.uniqueLabel();
+			String nextframelbl = emit.uniqueLabel();
+			String drainlbl = emit.uniqueLabel();
+			String fieldslbl = emit.uniqueLabel();
+			String arraylbl = emit.uniqueLabel();
+			String elemslbl = emit.uniqueLabel();
+			String sweeplbl = emit.uniqueLabel();
+			String sweeploop = emit.uniqueLabel();
+			String deadlbl = emit.uniqueLabel();
+			String runlbl = emit.uniqueLabel();
+			String freelbl = emit.uniqueLabel();
+			String smalllbl = emit.uniqueLabel();
+			String donelbl = emit.uniqueLabel();
+			String maxlbl = emit.uniqueLabel();
+			emit.emitCommentSection(COLLECT + " function");
+			emitGlobalLabel(COLLECT);
+			emit.emit("enter", "$32", "$0");
+			for (int i = 0; i < RegisterManager.CALLEE_SAVE.length; i++)
+				emit.emitStore(RegisterManager.CALLEE_SAVE[i], -4 * (i + 1), BASE_REG);
+			emit.emit("and", constant(-16), STACK_REG);
+			String timedlbl = emit.uniqueLabel();
+			emit.emit("cmpl", constant(0), GC_STATS);
+			emit.emit("je", timedlbl);
+			emit.emit("call", libc(Config.CLOCK, SYS_CLOCK));
+			emit.emitStore(Register.EAX, -32, BASE_REG);
+			emit.emitLabel(timedlbl);
+			emit.emit("incl", GC_COUNT);
+
+			// Turn the rest of the current chunk into a free chunk.
+			emit.emitMove(HEAP_PTR, Register.ECX);
+			emit.emitMove(HEAP_END, Register.EDX);
+			emit.emit("subl", Register.ECX, Register.EDX);
+			emit.emit("jz", bitslbl);
+			emit.emitStore(labelAddress(FREE_CHUNK), 0, Register.ECX);
+			emit.emitStore(Register.EDX, 4, Register.ECX);
+			emit.emitLabel(bitslbl);
+			emit.emitMove(constant(0), HEAP_PTR);
+			emit.emitMove(constant(0), HEAP_END);
+
+			// Record where the objects start.
+			emit.emitMove(START_BITS, top);
+			emit.emitMove(HEAP_SIZE, Register.ECX);
+			emit.emit("shrl", constant(alignShift + 3 + Integer.numberOfTrailingZeros(SIZEOF_PTR)), Register.ECX);
+			emit.emit("xorl", Register.EAX, Register.EAX);
+			emit.emitRaw("rep stosl");
+			emit.emitMove(HEAP_START, ptr);
+			emit.emitMove(START_BITS, obj);
+			String bitsloop = emit.uniqueLabel();
+			emit.emitLabel(bitsloop);
+			emit.emit("cmpl", HEAP_LIMIT, ptr);
+			emit.emit("jae", rootslbl);
+			emit.emit("call", sizelbl);
+			emit.emit("cmpl", constant(-1), registerOffset(-8, Register.EDX));
+			emit.emit("je", nobitlbl);
+			emit.emitMove(ptr, Register.EAX);
+			emit.emit("subl", HEAP_START, Register.EAX);
+			emit.emit("shrl", constant(alignShift), Register.EAX);
+			emit.emit("btsl", Register.EAX, String.format("(%s)", obj));
+			emit.emitLabel(nobitlbl);
+			emit.emit("addl", Register.ECX, ptr);
+			emit.emit("jmp", bitsloop);
+
+			// Mark everything the frames refer to. The words of a frame
+			// which are neither its parameters nor its locals are scanned
+			// conservatively.
+			emit.emitLabel(rootslbl);
+			emit.emitMove(MARK_STACK, top);
+			emit.emitLoad(8, BASE_REG, obj);
+			emit.emit("leal", registerOffset(-12, BASE_REG), ptr);
+			emit.emitLabel(framelbl);
+			emit.emit("cmpl", STACK_BASE, obj);
+			emit.emit("je", drainlbl);
+			emit.emitLoad(-4, obj, Register.EAX);
+			emit.emitStore(Register.EAX, -16, BASE_REG);
+			emit.emitMove(obj, Register.ECX);
+			emit.emit("subl", String.format("(%s)", Register.EAX), Register.ECX);
+			emit.emitStore(Register.ECX, -20, BASE_REG);
+			emit.emitLabel(stacklbl);
+			emit.emit("cmpl", registerOffset(-20, BASE_REG), ptr);
+			emit.emit("jae", slotslbl);
+			emit.emitLoad(0, ptr, Register.EAX);
+			emit.emit("call", maybelbl);
+			emit.emit("addl", constant(SIZEOF_PTR), ptr);
+			emit.emit("jmp", stacklbl);
+			emit.emitLabel(slotslbl);
+			emit.emitLoad(-16, BASE_REG, ptr);
+			emit.emitLoad(8, ptr, Register.ECX);
+			emit.emitStore(Register.ECX, -24, BASE_REG);
+			emit.emit("addl", constant(12), ptr);
+			emit.emitLabel(slotlbl);
+			emit.emit("cmpl", constant(0), registerOffset(-24, BASE_REG));
+			emit.emit("je", nextframelbl);
+			emit.emitLoad(0, ptr, Register.EAX);
+			emit.emit("movl", String.format("(%s,%s)", obj, Register.EAX), Register.EAX);
+			emit.emit("call", marklbl);
+			emit.emit("addl", constant(SIZEOF_PTR), ptr);
+			emit.emit("decl", registerOffset(-24, BASE_REG));
+			emit.emit("jmp", slotlbl);
+			emit.emitLabel(nextframelbl);
+			emit.emitLoad(-16, BASE_REG, Register.EAX);
+			emit.emitLoad(4, Register.EAX, ptr);
+			emit.emit("leal", String.format("8(%s,%s)", obj, ptr), ptr);
+			emit.emitLoad(0, obj, obj);
+			emit.emit("jmp", framelbl);
+
+			// Mark everything reachable from the marked objects.
+			emit.emitLabel(drainlbl);
+			emit.emit("cmpl", MARK_STACK, top);
+			emit.emit("je", sweeplbl);
+			emit.emit("subl", constant(SIZEOF_PTR), top);
+			emit.emitLoad(0, top, obj);
+			emit.emitLoad(0, obj, ptr);
+			emit.emit("andl", constant(-2), ptr);
+			emit.emit("cmpl", constant(0), registerOffset(-8, ptr));
+			emit.emit("je", arraylbl);
+			emit.emitLoad(-4, ptr, ptr);
+			emit.emitLoad(0, ptr, Register.ECX);
+			emit.emitStore(Register.ECX, -24, BASE_REG);
+			emit.emit("addl", constant(SIZEOF_PTR), ptr);
+			emit.emitLabel(fieldslbl);
+			emit.emit("cmpl", constant(0), registerOffset(-24, BASE_REG));
+			emit.emit("je", drainlbl);
+			emit.emitLoad(0, ptr, Register.EAX);
+			emit.emit("movl", String.format("(%s,%s)", obj, Register.EAX), Register.EAX);
+			emit.emit("call", marklbl);
+			emit.emit("addl", constant(SIZEOF_PTR), ptr);
+			emit.emit("decl", registerOffset(-24, BASE_REG));
+			emit.emit("jmp", fieldslbl);
+			emit.emitLabel(arraylbl);
+			emit.emit("cmpl", constant(0), registerOffset(-4, ptr));
+			emit.emit("je", drainlbl);
+			emit.emitLoad(SIZEOF_PTR, obj, Register.ECX);
+			emit.emitStore(Register.ECX, -24, BASE_REG);
+			emit.emit("leal", registerOffset(2 * SIZEOF_PTR, obj), ptr);
+			emit.emitLabel(elemslbl);
+			emit.emit("cmpl", constant(0), registerOffset(-24, BASE_REG));
+			emit.emit("je", drainlbl);
+			emit.emitLoad(0, ptr, Register.EAX);
+			emit.emit("call", marklbl);
+			emit.emit("addl", constant(SIZEOF_PTR), ptr);
+			emit.emit("decl", registerOffset(-24, BASE_REG));
+			emit.emit("jmp", elemslbl);
+
+			// Unmark the marked objects, and turn every run of unmarked ones
+			// into a zeroed free chunk.
+			emit.emitLabel(sweeplbl);
+			emit.emitMove(constant(0), FREE_LIST);
+			emit.emitStore(labelAddress(FREE_LIST), -28, BASE_REG);
+			emit.emitMove(HEAP_START, ptr);
+			emit.emit("xorl", obj, obj); // start of the current run
+			emit.emitLabel(sweeploop);
+			emit.emit("cmpl", HEAP_LIMIT, ptr);
+			emit.emit("jae", donelbl);
+			emit.emit("call", sizelbl);
+			emit.emit("testl", constant(1), String.format("(%s)", ptr));
+			emit.emit("jz", deadlbl);
+			emit.emit("andl", constant(-2), String.format("(%s)", ptr));
+			emit.emit("testl", obj, obj);
+			emit.emit("jz", runlbl);
+			emit.emit("call", flushlbl);
+			emit.emit("xorl", obj, obj);
+			emit.emitLabel(runlbl);
+			emit.emit("addl", Register.ECX, ptr);
+			emit.emit("jmp", sweeploop);
+			emit.emitLabel(deadlbl);
+			emit.emit("testl", obj, obj);
+			emit.emit("jnz", freelbl);
+			emit.emitMove(ptr, obj);
+			emit.emitLabel(freelbl);
+			emit.emit("cmpl", constant(-1), registerOffset(-8, Register.EDX));
+			emit.emit("je", smalllbl);
+			emit.emitMove(ptr, top);
+			emit.emit("addl", Register.ECX, ptr);
+			emit.emit("shrl", constant(2), Register.ECX);
+			emit.emit("xorl", Register.EAX, Register.EAX);
+			emit.emitRaw("rep stosl");
+			emit.emit("jmp", sweeploop);
+			emit.emitLabel(smalllbl); // only the header of a free chunk is set
+			emit.emitStore(constant(0), 0, ptr);
+			emit.emitStore(constant(0), 4, ptr);
+			emit.emit("cmpl", constant(ALLOC_ALIGN), Register.ECX);
+			emit.emit("je", runlbl);
+			emit.emitStore(constant(0), 8, ptr);
+			emit.emit("jmp", runlbl);
+			emit.emitLabel(donelbl);
+			emit.emit("testl", obj, obj);
+			String statslbl = emit.uniqueLabel();
+			emit.emit("jz", statslbl);
+			emit.emit("call", flushlbl);
+			emit.emitLabel(statslbl);
+			emit.emit("cmpl", constant(0), GC_STATS);
+			emit.emit("je", maxlbl);
+			emit.emit("call", libc(Config.CLOCK, SYS_CLOCK));
+			emit.emit("subl", registerOffset(-32, BASE_REG), Register.EAX);
+			if (Config.CLOCKS_PER_SEC != 1000000)
+				emit.emit("imull", constant(1000000 / Config.CLOCKS_PER_SEC), Register.EAX);
+			emit.emit("addl", Register.EAX, GC_TIME);
+			emit.emit("cmpl", GC_MAX_PAUSE, Register.EAX);
+			emit.emit("jbe", maxlbl);
+			emit.emitMove(Register.EAX, GC_MAX_PAUSE);
+			emit.emitLabel(maxlbl);
+			for (int i = 0; i < RegisterManager.CALLEE_SAVE.length; i++)
+				emit.emitLoad(-4 * (i + 1), BASE_REG, RegisterManager.CALLEE_SAVE[i]);
+			emit.emitRaw("leave");
+			emit.emitRaw("ret");
+
+			// Subroutine storing the size of the object at %esi in %ecx, and
+			// its vtable in %edx.
+			String notfreelbl = emit.uniqueLabel();
+			String retlbl = emit.uniqueLabel();
+			emit.emitLabel(sizelbl);
+			emit.emitLoad(0, ptr, Register.EDX);
+			emit.emit("andl", constant(-2), Register.EDX);
+			emit.emitLoad(-8, Register.EDX, Register.ECX);
+			emit.emit("cmpl", constant(-1), Register.ECX);
+			emit.emit("jne", notfreelbl);
+			emit.emitLoad(4, ptr, Register.ECX);
+			emit.emitRaw("ret");
+			emit.emitLabel(notfreelbl);
+			emit.emit("testl", Register.ECX, Register.ECX);
+			emit.emit("jnz", retlbl);
+			emit.emitLoad(4, ptr, Register.ECX);
+			emit.emit("leal", String.format("%d(,%s,%d)", 2 * SIZEOF_PTR + ALLOC_ALIGN - 1,
+					Register.ECX, SIZEOF_PTR), Register.ECX);
+			emit.emit("andl", constant(-ALLOC_ALIGN), Register.ECX);
+			emit.emitLabel(retlbl);
+			emit.emitRaw("ret");
+
+			// Subroutine marking the object at %eax and pushing it onto the
+			// mark stack, unless it is null or marked already.
+			String markedlbl = emit.uniqueLabel();
+			emit.emitLabel(marklbl);
+			emit.emit("testl", Register.EAX, Register.EAX);
+			emit.emit("jz", markedlbl);
+			emit.emit("testl", constant(1), String.format("(%s)", Register.EAX));
+			emit.emit("jnz", markedlbl);
+			emit.emit("orl", constant(1), String.format("(%s)", Register.EAX));
+			emit.emitStore(Register.EAX, 0, top);
+			emit.emit("addl", constant(SIZEOF_PTR), top);
+			emit.emitLabel(markedlbl);
+			emit.emitRaw("ret");
+
+			// Subroutine marking the object at %eax if %eax points to the
+			// start of an object.
+			String notobjlbl = emit.uniqueLabel();
+			emit.emitLabel(maybelbl);
+			emit.emit("cmpl", HEAP_START, Register.EAX);
+			emit.emit("jb", notobjlbl);
+			emit.emit("cmpl", HEAP_LIMIT, Register.EAX);
+			emit.emit("jae", notobjlbl);
+			emit.emit("testl", constant(ALLOC_ALIGN - 1), Register.EAX);
+			emit.emit("jnz", notobjlbl);
+			emit.emitMove(Register.EAX, Register.ECX);
+			emit.emit("subl", HEAP_START, Register.ECX);
+			emit.emit("shrl", constant(alignShift), Register.ECX);
+			emit.emitMove(START_BITS, Register.EDX);
+			emit.emit("btl", Register.ECX, String.format("(%s)", Register.EDX));
+			emit.emit("jc", marklbl);
+			emit.emitLabel(notobjlbl);
+			emit.emitRaw("ret");
+
+			// Subroutine turning the run of unmarked objects from %ebx to %esi
+			// into a free chunk, and appending it to the free list if it can
+			// hold the link.
+			String shortlbl = emit.uniqueLabel();
+			emit.emitLabel(flushlbl);
+			emit.emitMove(ptr, Register.EAX);
+			emit.emit("subl", obj, Register.EAX);
+			emit.emitStore(labelAddress(FREE_CHUNK), 0, obj);
+			emit.emitStore(Register.EAX, 4, obj);
+			emit.emit("cmpl", constant(3 * SIZEOF_PTR), Register.EAX);
+			emit.emit("jb", shortlbl);
+			emit.emitLoad(-28, BASE_REG, Register.EDX);
+			emit.emitStore(obj, 0, Register.EDX);
+			emit.emit("leal", registerOffset(8, obj), Register.EDX);
+			emit.emitStore(Register.EDX, -28, BASE_REG);
+			emit.emitLabel(shortlbl);
+			emit.emitRaw("ret");
+		}
+	}
+
+	/**
+	 * Emits code loading the next unread byte of the input into
+	 * <code>%eax</code>, refilling the input buffer if needed. Jumps to
+	 * <code>eoflbl</code> at the end of the input. <code>%ecx</code> and
+	 * <code>%edx</code> are overwritten, unless <code>keep</code> names one
+	 * of them.
+	 */
+	private void emitPeekInput(String eoflbl, Register keep) {
+		Register pos = RegisterManager.CALLER_SAVE[1];
+		String havelbl = emit.uniqueLabel();
+		emit.emitMove(IN_POS, pos);
+		emit.emit("cmpl", IN_END, pos);
+		emit.emit("jb", havelbl);
+		if (keep != null)
+			emit.emitStore(keep, -8, BASE_REG);
+		emit.emit("call", FILL_INPUT);
+		if (keep != null)
+			emit.emitLoad(-8, BASE_REG, keep);
+		emit.emit("testl", Register.EAX, Register.EAX);
+		emit.emit("jz", eoflbl);
+		emit.emitMove(IN_POS, pos);
+		emit.emitLabel(havelbl);
+		emit.emit("movzbl", String.format("%s(%s)", IN_BUF, pos), Register.EAX);
+	}
+
 	private void collectVtable(MethodSymbol[] vtable, ClassSymbol sym) {
 		if (sym.superClass != null)
 			collectVtable(vtable, sym.superClass);
@@ -452,6 +1432,21 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 			MethodSymbol[] vtable = new MethodSymbol[cs.totalMethods];
 			collectVtable(vtable, cs);
 
+			// Describe the objects to the garbage collector: the offsets of
+			// the fields holding references, followed by the size and a
+			// pointer to these offsets right in front of the vtable.
+			List<Integer> refFields = new ArrayList<Integer>();
+			for (ClassSymbol c = cs; c != null; c = c.superClass)
+				for (VariableSymbol fs : c.fields.values())
+					if (fs.type.isReferenceType())
+						refFields.add(fs.offset);
+			emit.emitLabel(fieldMap(cs));
+			emit.emitConstantData(String.valueOf(refFields.size()));
+			for (int offset : refFields)
+				emit.emitConstantData(String.valueOf(offset));
+			emit.emitConstantData(String.valueOf(allocSize(cs.sizeof)));
+			emit.emitConstantData(fieldMap(cs));
+
 			// Emit vtable for this class:
 			emit.emitLabel(vtable(cs));
 			if (cs.superClass != null)
@@ -459,14 +1454,81 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 			else
 				emit.emitConstantData("0");
 			for (int i = 0; i < cs.totalMethods; i++)
-				emit.emitConstantData(methodLabel(vtable[i]));
+				emit.emitConstantData(isLive(vtable[i]) ? methodLabel(vtable[i]) : "0");
 		} else if (ts instanceof ArrayTypeSymbol) {
 			ArrayTypeSymbol as = (ArrayTypeSymbol) ts;
+			// Arrays have no fixed size; only whether their elements are
+			// references is needed.
+			emit.emitConstantData("0");
+			emit.emitConstantData(as.elementType.isReferenceType() ? "1" : "0");
 			emit.emitLabel(vtable(as));
 			emit.emitConstantData(vtable(ClassSymbol.objectType));
 		}
 	}
 
+	/** Returns whether the code of {@code msym} is emitted. */
+	protected boolean isLive(MethodSymbol msym) {
+		return callGraph == null || callGraph.isReachable(msym.ast);
+	}
+
+	/**
+	 * Returns the types whose vtables the reachable methods use, including
+	 * all their superclasses, or {@code null} if the call graph is unknown.
+	 */
+	private Set<TypeSymbol> liveTypes() {
+		if (callGraph == null)
+			return null;
+		final Set<TypeSymbol> used = new LinkedHashSet<TypeSymbol>(callGraph.instantiatedClasses());
+		used.add(ClassSymbol.objectType); // the superclass of all arrays
+		AstVisitor<Void, Void> collector = new AstVisitor<Void, Void>() {
+			@Override
+			public Void newArray(NewArray ast, Void arg) {
+				used.add(ast.type);
+				return visitChildren(ast, arg);
+			}
+
+			@Override
+			public Void cast(Cast ast, Void arg) {
+				used.add(ast.type);
+				return visitChildren(ast, arg);
+			}
+		};
+		for (MethodDecl mdecl : callGraph.methods()) {
+			if (!callGraph.isReachable(mdecl))
+				continue;
+			for (BasicBlock block : mdecl.cfg.allBlocks) {
+				for (Stmt stmt : block.stmts)
+					collector.visit(stmt, null);
+				if (block.condition != null)
+					collector.visit(block.condition, null);
+			}
+		}
+
+		Set<TypeSymbol> result = new LinkedHashSet<TypeSymbol>();
+		for (TypeSymbol ts : used) {
+			result.add(ts);
+			if (ts instanceof ClassSymbol)
+				for (ClassSymbol cs = ((ClassSymbol) ts).superClass; cs != null; cs = cs.superClass)
+					result.add(cs);
+		}
+		return result;
+	}
+
+	/** Returns the label of the offsets of the reference fields of {@code cs}. */
+	protected String fieldMap(ClassSymbol cs) {
+		return "fieldmap_" + cs.name;
+	}
+
+	/** Returns the label of the frame map of {@code msym}. */
+	protected String frameMap(MethodSymbol msym) {
+		return "framemap_" + methodLabel(msym);
+	}
+
+	/** Returns the number of bytes actually allocated for {@code size} bytes. */
+	static int allocSize(int size) {
+		return (size + ALLOC_ALIGN - 1) & -ALLOC_ALIGN;
+	}
+
 	protected String vtable(TypeSymbol ts) {
 		if (ts instanceof ClassSymbol) {
 			return "vtable_" + ((ClassSymbol) ts).name;
@@ -575,14 +1637,70 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 	 */
 
 	protected void genJumpIfFalse(Expr ast, String lbl) {
-		// A better way to implement this would be with a separate
-		// visitor.
+		// Comparisons branch on the flags they set, and locals are
+		// compared in memory.
+		if (ast instanceof BinaryOp && jumpIfFalse(((BinaryOp) ast).operator) != null) {
+			BinaryOp cmp = (BinaryOp) ast;
+			switch (InstructionSelector.select(cmp)) {
+			case REG_OPERAND: {
+				Register reg = eg.gen(cmp.left());
+				emit.emit("cmpl", InstructionSelector.operand(cmp.right()), reg);
+				emit.emit(jumpIfFalse(cmp.operator), lbl);
+				rm.releaseRegister(reg);
+				return;
+			}
+			case OPERAND_REG: {
+				Register reg = eg.gen(cmp.right());
+				emit.emit("cmpl", InstructionSelector.operand(cmp.left()), reg);
+				emit.emit(jumpIfFalse(InstructionSelector.mirror(cmp.operator)), lbl);
+				rm.releaseRegister(reg);
+				return;
+			}
+			default: {
+				Register left = eg.gen(cmp.left());
+				Pair<Register> regs = egRef.genPushing(left, cmp.right());
+				emit.emit("cmpl", regs.b, regs.a);
+				emit.emit(jumpIfFalse(cmp.operator), lbl);
+				rm.releaseRegister(regs.a);
+				rm.releaseRegister(regs.b);
+				return;
+			}
+			}
+		}
+		if (InstructionSelector.select(ast) == Tile.MEMORY) {
+			emit.emit("cmpl", "$0", InstructionSelector.operand(ast));
+			emit.emit("je", lbl);
+			return;
+		}
 		Register reg = eg.gen(ast);
 		emit.emit("cmpl", "$0", reg);
 		emit.emit("je", lbl);
 		rm.releaseRegister(reg);
 	}
 
+	/**
+	 * Returns the conditional jump taken when the comparison {@code op} is
+	 * false, or {@code null} if {@code op} is no comparison.
+	 */
+	private static String jumpIfFalse(BOp op) {
+		switch (op) {
+		case B_EQUAL:
+			return "jne";
+		case B_NOT_EQUAL:
+			return "je";
+		case B_LESS_THAN:
+			return "jge";
+		case B_LESS_OR_EQUAL:
+			return "jg";
+		case B_GREATER_THAN:
+			return "jle";
+		case B_GREATER_OR_EQUAL:
+			return "jl";
+		default:
+			return null;
+		}
+	}
+
 	
 
 	/**
@@ -618,7 +1736,9 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 		// 8 arg N
 		// 4 linkage ptr (return address)
 		// 0 saved ebp
-		// -4 locals
+		// -4 frame map
+		// -8 (unused)
+		// -12 locals
 		// (callee's arguments + temporaries)
 		//
 		// We allocate on the stack during the course of
@@ -684,8 +1804,29 @@ class AstCodeGeneratorRef extends AstCodeGenerator {
 		emit.emitComment(String.format("implicit=%d localSlot=%d sum=%d", implicit,
 				localSlot, implicit + localSlot));
 
+		// Emit the frame map for the garbage collector: the size of the
+		// locals, the size of the arguments and the offsets of the
+		// parameters and locals holding references.
+		List<Integer> refSlots = new ArrayList<Integer>();
+		refSlots.add(THIS_OFFSET);
+		for (VariableSymbol param : ast.sym.parameters)
+			if (param.type.isReferenceType())
+				refSlots.add(param.offset);
+		for (VariableSymbol local : ast.sym.locals.values())
+			if (local.type.isReferenceType())
+				refSlots.add(local.offset);
+		emit.emitRaw(Config.DATA_INT_SECTION);
+		emit.emitLabel(frameMap(ast.sym));
+		emit.emitConstantData(String.valueOf(stackSize));
+		emit.emitConstantData(String.valueOf(paramOffset - implicit));
+		emit.emitConstantData(String.valueOf(refSlots.size()));
+		for (int offset : refSlots)
+			emit.emitConstantData(String.valueOf(offset));
+		emit.emitRaw(Config.TEXT_SECTION);
+
 		emit.emitRaw(String.format("enter $%d, $0", stackSize));
 		emit.emit("and", -16, STACK_REG);
+		emit.emitStore(labelAddress(frameMap(ast.sym)), -SIZEOF_PTR, BASE_REG);
 
 		storeCalleeSaveRegs();
 
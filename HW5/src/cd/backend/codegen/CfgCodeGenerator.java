@@ -13,6 +13,7 @@ import cd.ir.AstVisitor;
 import cd.ir.BasicBlock;
 import cd.ir.ControlFlowGraph;
 import cd.ir.Symbol.PrimitiveTypeSymbol;
+import cd.transform.analysis.CallGraph;
 
 public class CfgCodeGenerator {
 
@@ -25,10 +26,16 @@ public class CfgCodeGenerator {
 	}
 
 	public void go(List<? extends ClassDecl> astRoots) {
+		cg.callGraph = new CallGraph(astRoots);
 		cg.emitPrefix(astRoots);
 		for (ClassDecl cdecl : astRoots)
 			new CfgStmtVisitor().visit(cdecl, null);
 	}
+
+	/** Emits the runtime library linked with the programs, see {@link Main#linkRuntime}. */
+	public void goRuntime() {
+		cg.emitRuntime();
+	}
 	
 	private class CfgStmtVisitor extends AstVisitor<Void, Void> {
 
@@ -43,6 +50,8 @@ public class CfgCodeGenerator {
 
 		@Override
 		public Void methodDecl(MethodDecl ast, Void arg) {
+			if (!cg.isLive(ast.sym))
+				return null;
 			cg.emitMethodPrefix(ast);
 			
 			ControlFlowGraph cfg = ast.cfg;
@@ -53,9 +62,14 @@ public class CfgCodeGenerator {
 				labels.put(blk, cg.emit.uniqueLabel());
 			String exitLabel = cg.emit.uniqueLabel();
 			
-			cg.emit.emit("jmp", labels.get(cfg.start));
+			// Jumps to the block emitted next are left out.
+			List<BasicBlock> blocks = cfg.allBlocks;
+			if (blocks.get(0) != cfg.start)
+				cg.emit.emit("jmp", labels.get(cfg.start));
 
-			for (BasicBlock blk : cfg.allBlocks) {
+			for (int i = 0; i < blocks.size(); i++) {
+				BasicBlock blk = blocks.get(i);
+				BasicBlock next = (i + 1 < blocks.size() ? blocks.get(i + 1) : null);
 				
 				cg.emit.emitCommentSection("Basic block " + blk.index);
 				cg.emit.emitLabel(labels.get(blk));
@@ -66,19 +80,22 @@ public class CfgCodeGenerator {
 				if (blk == cfg.end) {
 					cg.emit.emitComment(String.format("Return"));
 					assert blk.successors.size() == 0;
-					cg.emit.emit("jmp", exitLabel);
+					if (next != null)
+						cg.emit.emit("jmp", exitLabel);
 				} else if (blk.condition != null) {
 					assert blk.successors.size() == 2;
 					cg.emit.emitComment(String.format(
 							"Exit to block %d if true, block %d if false",
 							blk.trueSuccessor().index, blk.falseSuccessor().index));
 					cg.genJumpIfFalse(blk.condition, labels.get(blk.falseSuccessor()));
-					cg.emit.emit("jmp", labels.get(blk.trueSuccessor()));
+					if (blk.trueSuccessor() != next)
+						cg.emit.emit("jmp", labels.get(blk.trueSuccessor()));
 				} else {
 					cg.emit.emitComment(String.format(
 							"Exit to block %d", blk.successors.get(0).index));
 					assert blk.successors.size() == 1;
-					cg.emit.emit("jmp", labels.get(blk.successors.get(0)));
+					if (blk.successors.get(0) != next)
+						cg.emit.emit("jmp", labels.get(blk.successors.get(0)));
 				}
 			}
 
@@ -2,13 +2,16 @@ package cd.backend.codegen;
 
 import static cd.backend.codegen.AssemblyEmitter.constant;
 import static cd.backend.codegen.AssemblyEmitter.labelAddress;
+import static cd.backend.codegen.AssemblyEmitter.registerOffset;
 import static cd.backend.codegen.RegisterManager.BASE_REG;
+import static cd.backend.codegen.RegisterManager.STACK_REG;
 
 import java.util.Arrays;
 import java.util.List;
 
 import cd.Config;
 import cd.ToDoException;
+import cd.backend.codegen.InstructionSelector.Tile;
 import cd.backend.codegen.RegisterManager.Register;
 import cd.ir.Ast.BinaryOp;
 import cd.ir.Ast.BinaryOp.BOp;
@@ -201,8 +204,51 @@ class ExprGeneratorRef extends ExprGenerator {
 
 	@Override
 	public Register binaryOp(BinaryOp ast, Void arg) {
+		switch (InstructionSelector.select(ast)) {
+		case CONSTANT_ARITH:
+			// Constant factors and divisors are folded into the instructions.
+			if (ast.operator == BOp.B_TIMES && ast.left() instanceof IntConst) {
+				Register reg = gen(ast.right());
+				emitMultiply(reg, ((IntConst) ast.left()).value);
+				return reg;
+			} else {
+				int value = ((IntConst) ast.right()).value;
+				Register reg = gen(ast.left());
+				if (ast.operator == BOp.B_TIMES)
+					emitMultiply(reg, value);
+				else
+					emitDivModConstant(ast.operator == BOp.B_MOD, reg, value);
+				return reg;
+			}
+		case REG_OPERAND: {
+			Register reg = gen(ast.left());
+			emitOperation(ast.operator, reg, InstructionSelector.operand(ast.right()));
+			return reg;
+		}
+		case OPERAND_REG: {
+			// The left operand is a constant or a local, which evaluating
+			// the right one cannot change.
+			Register reg = gen(ast.right());
+			emitOperation(InstructionSelector.mirror(ast.operator), reg,
+					InstructionSelector.operand(ast.left()));
+			return reg;
+		}
+		case SCALED_ADD: {
+			Register reg = gen(ast.left());
+			Pair<Register> regs = genPushing(reg, InstructionSelector.scaled(ast.right()));
+			cgRef.emit.emit("leal", String.format("(%s,%s,%d)", regs.a, regs.b,
+					InstructionSelector.scale(ast.right())), regs.a);
+			cgRef.rm.releaseRegister(regs.b);
+			return regs.a;
+		}
+		default:
+			break;
+		}
+
 		Register leftReg = null;
 		Register rightReg = null;
+		final boolean checkNonZero = !(ast.right() instanceof IntConst)
+				|| ((IntConst) ast.right()).value == 0;
 
 		{
 
@@ -226,50 +272,14 @@ class ExprGeneratorRef extends ExprGenerator {
 			public void integerOp(Register leftReg, BOp op, Register rightReg) {
 
 				switch (op) {
-				case B_TIMES:
-					cgRef.emit.emit("imull", rightReg, leftReg);
-					break;
-				case B_PLUS:
-					cgRef.emit.emit("addl", rightReg, leftReg);
-					break;
-				case B_MINUS:
-					cgRef.emit.emit("subl", rightReg, leftReg);
-					break;
 				case B_DIV:
-					emitDivMod(Register.EAX, leftReg, rightReg);
+					emitDivMod(Register.EAX, leftReg, rightReg, checkNonZero);
 					break;
 				case B_MOD:
-					emitDivMod(Register.EDX, leftReg, rightReg);
-					break;
-				case B_AND:
-					cgRef.emit.emit("andl", rightReg, leftReg);
-					break;
-				case B_OR:
-					cgRef.emit.emit("orl", rightReg, leftReg);
-					break;
-				case B_EQUAL:
-					emitCmp("sete", leftReg, rightReg);
-					break;
-				case B_NOT_EQUAL:
-					emitCmp("setne", leftReg, rightReg);
-					break;
-				case B_LESS_THAN:
-					emitCmp("setl", leftReg, rightReg);
-					break;
-				case B_LESS_OR_EQUAL:
-					emitCmp("setle", leftReg, rightReg);
-					break;
-				case B_GREATER_THAN:
-					emitCmp("setg", leftReg, rightReg);
-					break;
-				case B_GREATER_OR_EQUAL:
-					emitCmp("setge", leftReg, rightReg);
+					emitDivMod(Register.EDX, leftReg, rightReg, checkNonZero);
 					break;
 				default:
-					throw new AssemblyFailedException(
-							"Invalid binary operator for "
-									+ PrimitiveTypeSymbol.intType + " or "
-									+ PrimitiveTypeSymbol.booleanType);
+					emitOperation(op, leftReg, rightReg.repr);
 				}
 
 			}
@@ -281,9 +291,57 @@ class ExprGeneratorRef extends ExprGenerator {
 		return leftReg;
 	}
 
-	private void emitCmp(String opname, Register leftReg, Register rightReg) {
+	/**
+	 * Applies {@code op} to {@code leftReg} and {@code right}, which is a
+	 * register, an immediate or a memory operand, leaving the result in
+	 * {@code leftReg}. Division is handled by {@link #emitDivMod}.
+	 */
+	private void emitOperation(BOp op, Register leftReg, String right) {
+		switch (op) {
+		case B_TIMES:
+			cgRef.emit.emit("imull", right, leftReg);
+			break;
+		case B_PLUS:
+			cgRef.emit.emit("addl", right, leftReg);
+			break;
+		case B_MINUS:
+			cgRef.emit.emit("subl", right, leftReg);
+			break;
+		case B_AND:
+			cgRef.emit.emit("andl", right, leftReg);
+			break;
+		case B_OR:
+			cgRef.emit.emit("orl", right, leftReg);
+			break;
+		case B_EQUAL:
+			emitCmp("sete", leftReg, right);
+			break;
+		case B_NOT_EQUAL:
+			emitCmp("setne", leftReg, right);
+			break;
+		case B_LESS_THAN:
+			emitCmp("setl", leftReg, right);
+			break;
+		case B_LESS_OR_EQUAL:
+			emitCmp("setle", leftReg, right);
+			break;
+		case B_GREATER_THAN:
+			emitCmp("setg", leftReg, right);
+			break;
+		case B_GREATER_OR_EQUAL:
+			emitCmp("setge", leftReg, right);
+			break;
+		default:
+			throw new AssemblyFailedException(
+					"Invalid binary operator for "
+							+ PrimitiveTypeSymbol.intType + " or "
+							+ PrimitiveTypeSymbol.booleanType);
+		}
+	}
+
+	private void emitCmp(String opname, Register leftReg, String right) {
 
-		cgRef.emit.emit("cmpl", rightReg, leftReg);
+		cgRef.emit.emit("cmpl", right, leftReg);
 
 		if (leftReg.hasLowByteVersion()) {
 			cgRef.emit.emit("movl", "$0", leftReg);
@@ -299,13 +357,15 @@ class ExprGeneratorRef extends ExprGenerator {
 	}
 
 	private void emitDivMod(Register whichResultReg, Register leftReg,
-			Register rightReg) {
-
-		// Compare right reg for 0
-		int padding = cgRef.emitCallPrefix(null, 1);
-		cgRef.push(rightReg.repr);
-		cgRef.emit.emit("call", AstCodeGeneratorRef.CHECK_NON_ZERO);
-		cgRef.emitCallSuffix(null, 1, padding);
+			Register rightReg, boolean checkNonZero) {
+
+		// Compare right reg for 0, unless it is a non-zero constant
+		if (checkNonZero) {
+			int padding = cgRef.emitCallPrefix(null, 1);
+			cgRef.push(rightReg.repr);
+			cgRef.emit.emit("call", AstCodeGeneratorRef.CHECK_NON_ZERO);
+			cgRef.emitCallSuffix(null, 1, padding);
+		}
 
 		// Save EAX, EBX, and EDX to the stack if they are not used
 		// in this subtree (but are used elsewhere). We will be
@@ -334,6 +394,142 @@ class ExprGeneratorRef extends ExprGenerator {
 		}
 	}
 
+	/**
+	 * Multiplies {@code reg} by {@code factor}, using shifts and {@code leal}
+	 * where they do.
+	 */
+	private void emitMultiply(Register reg, int factor) {
+		int positive = factor < 0 && factor != Integer.MIN_VALUE ? -factor : factor;
+		int shift = Integer.numberOfTrailingZeros(positive);
+		int odd = positive >>> shift;
+		if (factor == 0) {
+			cgRef.emit.emit("xorl", reg, reg);
+			return;
+		}
+		if (odd != 1 && odd != 3 && odd != 5 && odd != 9) {
+			cgRef.emit.emit("imull", constant(factor), reg);
+			return;
+		}
+		if (odd != 1)
+			cgRef.emit.emit("leal", String.format("(%s,%s,%d)", reg, reg, odd - 1), reg);
+		if (shift != 0)
+			cgRef.emit.emit("shll", constant(shift), reg);
+		if (positive != factor)
+			cgRef.emit.emit("negl", reg);
+	}
+
+	/**
+	 * Divides {@code reg} by {@code divisor}, or computes the remainder,
+	 * without {@code idivl}. The quotient is rounded toward zero like
+	 * {@code idivl} does: a power of two takes an arithmetic shift after
+	 * adding {@code divisor - 1} to negative dividends, any other divisor a
+	 * multiplication by its "magic number" (see Hacker's Delight, chapter
+	 * 10), keeping the upper half. The remainder is
+	 * {@code reg - quotient * divisor}.
+	 * <p>
+	 * The divisor must not be 0, -1 or {@link Integer#MIN_VALUE}.
+	 */
+	private void emitDivModConstant(boolean remainder, Register reg, int divisor) {
+		// The dividend is kept on the stack, and the result is computed in
+		// EAX and EDX, which are saved if they are used elsewhere.
+		Register[] affected = { Register.EAX, Register.EDX };
+		for (Register s : affected)
+			if (s != reg && cgRef.rm.isInUse(s))
+				cgRef.emit.emit("pushl", s);
+		cgRef.emit.emit("pushl", reg);
+		String dividend = registerOffset(0, STACK_REG);
+
+		int absolute = Math.abs(divisor);
+		Register result;
+		if (divisor == 1) {
+			cgRef.emit.emit("movl", dividend, Register.EAX);
+			if (remainder)
+				cgRef.emit.emit("xorl", Register.EAX, Register.EAX);
+			result = Register.EAX;
+		} else if ((absolute & (absolute - 1)) == 0) {
+			int shift = Integer.numberOfTrailingZeros(absolute);
+			cgRef.emit.emit("movl", dividend, Register.EAX);
+			cgRef.emit.emitRaw("cltd");
+			cgRef.emit.emit("shrl", constant(32 - shift), Register.EDX);
+			cgRef.emit.emit("addl", Register.EDX, Register.EAX);
+			if (remainder) {
+				cgRef.emit.emit("andl", constant(-absolute), Register.EAX);
+				cgRef.emit.emit("movl", dividend, Register.EDX);
+				cgRef.emit.emit("subl", Register.EAX, Register.EDX);
+				result = Register.EDX;
+			} else {
+				cgRef.emit.emit("sarl", constant(shift), Register.EAX);
+				if (divisor < 0)
+					cgRef.emit.emit("negl", Register.EAX);
+				result = Register.EAX;
+			}
+		} else {
+			int[] magic = magic(divisor);
+			cgRef.emit.emit("movl", constant(magic[0]), Register.EAX);
+			cgRef.emit.emit("imull", dividend);
+			if (divisor > 0 && magic[0] < 0)
+				cgRef.emit.emit("addl", dividend, Register.EDX);
+			if (divisor < 0 && magic[0] > 0)
+				cgRef.emit.emit("subl", dividend, Register.EDX);
+			if (magic[1] != 0)
+				cgRef.emit.emit("sarl", constant(magic[1]), Register.EDX);
+			// Round negative quotients toward zero.
+			cgRef.emit.emit("movl", divisor > 0 ? dividend : Register.EDX.repr, Register.EAX);
+			cgRef.emit.emit("shrl", constant(31), Register.EAX);
+			cgRef.emit.emit("addl", Register.EAX, Register.EDX);
+			if (remainder) {
+				cgRef.emit.emit("imull", constant(divisor), Register.EDX);
+				cgRef.emit.emit("movl", dividend, Register.EAX);
+				cgRef.emit.emit("subl", Register.EDX, Register.EAX);
+				result = Register.EAX;
+			} else {
+				result = Register.EDX;
+			}
+		}
+
+		cgRef.emit.emit("movl", result, reg);
+		cgRef.emit.emit("addl", constant(4), STACK_REG);
+		for (int i = affected.length - 1; i >= 0; i--) {
+			Register s = affected[i];
+			if (s != reg && cgRef.rm.isInUse(s))
+				cgRef.emit.emit("popl", s);
+		}
+	}
+
+	/**
+	 * Returns the magic number and the shift to divide by {@code divisor}
+	 * with {@code imull}, following Hacker's Delight, figure 10-1. The
+	 * arithmetic is unsigned 32 bit, done in {@code long}s.
+	 */
+	static int[] magic(int divisor) {
+		final long two31 = 0x80000000L, mask = 0xFFFFFFFFL;
+		long ad = Math.abs((long) divisor);
+		long t = two31 + ((divisor & mask) >>> 31);
+		long anc = t - 1 - t % ad;
+		int p = 31;
+		long q1 = two31 / anc, r1 = two31 - q1 * anc;
+		long q2 = two31 / ad, r2 = two31 - q2 * ad;
+		long delta;
+		do {
+			p++;
+			q1 = (2 * q1) & mask;
+			r1 = (2 * r1) & mask;
+			if (r1 >= anc) {
+				q1 = (q1 + 1) & mask;
+				r1 -= anc;
+			}
+			q2 = (2 * q2) & mask;
+			r2 = (2 * r2) & mask;
+			if (r2 >= ad) {
+				q2 = (q2 + 1) & mask;
+				r2 -= ad;
+			}
+			delta = ad - r2;
+		} while (q1 < delta || (q1 == delta && r1 == 0));
+		int multiplier = (int) (q2 + 1);
+		return new int[] { divisor < 0 ? -multiplier : multiplier, p - 32 };
+	}
+
 	@Override
 	public Register booleanConst(BooleanConst ast, Void arg) {
 		Register reg = cgRef.rm.getRegister();
@@ -366,10 +562,23 @@ class ExprGeneratorRef extends ExprGenerator {
 	@Override
 	public Register index(Index ast, Void arg) {
 		Register arr = gen(ast.left());
-		int padding = cgRef.emitCallPrefix(null, 1);
-		cgRef.push(arr.repr);
-		cgRef.emit.emit("call", AstCodeGeneratorRef.CHECK_NULL);
-		cgRef.emitCallSuffix(null, 1, padding);
+		int padding;
+		if (!ast.left().nonNull) {
+			padding = cgRef.emitCallPrefix(null, 1);
+			cgRef.push(arr.repr);
+			cgRef.emit.emit("call", AstCodeGeneratorRef.CHECK_NULL);
+			cgRef.emitCallSuffix(null, 1, padding);
+		}
+		if (InstructionSelector.select(ast) == Tile.CONSTANT_INDEX) {
+			int index = ((IntConst) ast.right()).value;
+			padding = cgRef.emitCallPrefix(null, 2);
+			cgRef.push(constant(index));
+			cgRef.push(arr.repr);
+			cgRef.emit.emit("call", AstCodeGeneratorRef.CHECK_ARRAY_BOUNDS);
+			cgRef.emitCallSuffix(null, 2, padding);
+			cgRef.emit.emitMove(InstructionSelector.elementAddress(arr, index), arr);
+			return arr;
+		}
 		Pair<Register> pair = genPushing(arr, ast.right());
 		arr = pair.a;
 		Register idx = pair.b;
@@ -389,10 +598,12 @@ class ExprGeneratorRef extends ExprGenerator {
 	@Override
 	public Register field(Field ast, Void arg) {
 		Register reg = gen(ast.arg());
-		int padding = cgRef.emitCallPrefix(null, 1);
-		cgRef.push(reg.repr);
-		cgRef.emit.emit("call", AstCodeGeneratorRef.CHECK_NULL);
-		cgRef.emitCallSuffix(null, 1, padding);
+		if (InstructionSelector.select(ast) != Tile.THIS_FIELD && !ast.arg().nonNull) {
+			int padding = cgRef.emitCallPrefix(null, 1);
+			cgRef.push(reg.repr);
+			cgRef.emit.emit("call", AstCodeGeneratorRef.CHECK_NULL);
+			cgRef.emitCallSuffix(null, 1, padding);
+		}
 		assert ast.sym.offset != -1;
 		cgRef.emit.emitLoad(ast.sym.offset, reg, reg);
 		return reg;
@@ -436,10 +647,23 @@ class ExprGeneratorRef extends ExprGenerator {
 	public Register newObject(NewObject ast, Void arg) {
 		ClassSymbol clssym = (ClassSymbol) ast.type;
 		Register reg = cgRef.rm.getRegister();
+		String slowlbl = cgRef.emit.uniqueLabel();
+		String donelbl = cgRef.emit.uniqueLabel();
+		// Bump the heap pointer inline, and only call the allocator when
+		// the current chunk is exhausted.
+		cgRef.emit.emitMove(AstCodeGeneratorRef.HEAP_PTR, reg);
+		cgRef.emit.emit("addl", constant(AstCodeGeneratorRef.allocSize(clssym.sizeof)), reg);
+		cgRef.emit.emit("cmpl", AstCodeGeneratorRef.HEAP_END, reg);
+		cgRef.emit.emit("ja", slowlbl);
+		cgRef.emit.emitMove(reg, AstCodeGeneratorRef.HEAP_PTR);
+		cgRef.emit.emit("subl", constant(AstCodeGeneratorRef.allocSize(clssym.sizeof)), reg);
+		cgRef.emit.emit("jmp", donelbl);
+		cgRef.emit.emitLabel(slowlbl);
 		int allocPadding = cgRef.emitCallPrefix(reg, 1);
 		cgRef.push(constant(clssym.sizeof));
 		cgRef.emit.emit("call", AstCodeGeneratorRef.ALLOC);
 		cgRef.emitCallSuffix(reg, 1, allocPadding);
+		cgRef.emit.emitLabel(donelbl);
 		cgRef.emit.emitStore(labelAddress(cgRef.vtable(clssym)), 0, reg);
 		return reg;
 	}
@@ -460,7 +684,7 @@ class ExprGeneratorRef extends ExprGenerator {
 
 	@Override
 	public Register methodCall(MethodCallExpr ast, Void arg) {
-		return cgRef.sg.methodCall(ast.sym, ast.allArguments());
+		return cgRef.sgRef.methodCall(ast.sym, ast.directTarget, ast.allArguments());
 	}
 
 	@Override
@@ -0,0 +1,182 @@
+package cd.backend.codegen;
+
+import static cd.backend.codegen.AssemblyEmitter.constant;
+import static cd.backend.codegen.AssemblyEmitter.registerOffset;
+import static cd.backend.codegen.RegisterManager.BASE_REG;
+
+import cd.Config;
+import cd.backend.codegen.RegisterManager.Register;
+import cd.ir.Ast.BinaryOp;
+import cd.ir.Ast.BinaryOp.BOp;
+import cd.ir.Ast.BooleanConst;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.Field;
+import cd.ir.Ast.Index;
+import cd.ir.Ast.IntConst;
+import cd.ir.Ast.NullConst;
+import cd.ir.Ast.ThisRef;
+import cd.ir.Ast.Var;
+
+/**
+ * Matches expression trees against the x86 instruction patterns ("tiles")
+ * the code generators know, in the spirit of a bottom-up rewrite system:
+ * each tile covers a node and possibly some of its children, and the tile
+ * with the fewest registers and instructions wins. As there are only a few
+ * tiles, they are tried in order of preference instead of being chosen by
+ * dynamic programming.
+ * <p>
+ * The {@link ExprGeneratorRef} emits the selected tiles, and the
+ * {@link RegsNeededVisitor} counts the registers they need, so that both
+ * agree on how a tree is evaluated.
+ */
+class InstructionSelector {
+
+	enum Tile {
+		/** A constant, which can be an immediate operand. */
+		IMMEDIATE,
+		/** A local or parameter, which can be a memory operand. */
+		MEMORY,
+		/**
+		 * A binary operator whose right operand is an {@link #IMMEDIATE} or
+		 * {@link #MEMORY}, as in <code>addl $1, %eax</code>.
+		 */
+		REG_OPERAND,
+		/**
+		 * A commutative operator or comparison whose left operand is an
+		 * {@link #IMMEDIATE} or {@link #MEMORY}, evaluated with the operands
+		 * swapped.
+		 */
+		OPERAND_REG,
+		/** <code>a + b * 2</code>, 4 or 8, as one <code>leal</code>. */
+		SCALED_ADD,
+		/**
+		 * A multiplication, division or remainder by a constant, done with
+		 * shifts, <code>leal</code> and multiplications.
+		 */
+		CONSTANT_ARITH,
+		/** A field of <code>this</code>, which needs no null check. */
+		THIS_FIELD,
+		/** An array element at a constant index, addressed by displacement. */
+		CONSTANT_INDEX,
+		/** Any other node, whose operands are all evaluated into registers. */
+		REGISTERS
+	}
+
+	static Tile select(Expr ast) {
+		if (ast instanceof IntConst || ast instanceof BooleanConst || ast instanceof NullConst)
+			return Tile.IMMEDIATE;
+		if (ast instanceof Var)
+			return Tile.MEMORY;
+		if (ast instanceof Field && ((Field) ast).arg() instanceof ThisRef)
+			return Tile.THIS_FIELD;
+		if (ast instanceof Index && ((Index) ast).right() instanceof IntConst)
+			return Tile.CONSTANT_INDEX;
+		if (ast instanceof BinaryOp)
+			return select((BinaryOp) ast);
+		return Tile.REGISTERS;
+	}
+
+	private static Tile select(BinaryOp ast) {
+		BOp op = ast.operator;
+		if (isConstantArith(ast))
+			return Tile.CONSTANT_ARITH;
+		if (op == BOp.B_DIV || op == BOp.B_MOD)
+			return Tile.REGISTERS;
+		if (isOperand(ast.right()))
+			return Tile.REG_OPERAND;
+		if (mirror(op) != null && isOperand(ast.left()))
+			return Tile.OPERAND_REG;
+		if (op == BOp.B_PLUS && scale(ast.right()) != 0)
+			return Tile.SCALED_ADD;
+		return Tile.REGISTERS;
+	}
+
+	private static boolean isConstantArith(BinaryOp ast) {
+		switch (ast.operator) {
+		case B_TIMES:
+			return ast.left() instanceof IntConst || ast.right() instanceof IntConst;
+		case B_DIV:
+		case B_MOD:
+			// Dividing by 0 or -1 may trap, and is left to idivl, like the
+			// smallest integer, which has no magic number.
+			if (!(ast.right() instanceof IntConst))
+				return false;
+			int divisor = ((IntConst) ast.right()).value;
+			return divisor != 0 && divisor != -1 && divisor != Integer.MIN_VALUE;
+		default:
+			return false;
+		}
+	}
+
+	/** Returns whether {@code ast} can be used as an operand directly. */
+	static boolean isOperand(Expr ast) {
+		Tile tile = select(ast);
+		return tile == Tile.IMMEDIATE || tile == Tile.MEMORY;
+	}
+
+	/**
+	 * Returns {@code ast} as an immediate or memory operand. It must be an
+	 * {@link #isOperand(Expr) operand}.
+	 */
+	static String operand(Expr ast) {
+		if (ast instanceof IntConst)
+			return constant(((IntConst) ast).value);
+		if (ast instanceof BooleanConst)
+			return constant(((BooleanConst) ast).value ? 1 : 0);
+		if (ast instanceof NullConst)
+			return constant(0);
+		Var var = (Var) ast;
+		assert var.sym.offset != -1;
+		return registerOffset(var.sym.offset, BASE_REG);
+	}
+
+	/**
+	 * Returns the operator which gives the same result as {@code op} with
+	 * its operands swapped, or {@code null} if there is none.
+	 */
+	static BOp mirror(BOp op) {
+		switch (op) {
+		case B_TIMES:
+		case B_PLUS:
+		case B_AND:
+		case B_OR:
+		case B_EQUAL:
+		case B_NOT_EQUAL:
+			return op;
+		case B_LESS_THAN:
+			return BOp.B_GREATER_THAN;
+		case B_LESS_OR_EQUAL:
+			return BOp.B_GREATER_OR_EQUAL;
+		case B_GREATER_THAN:
+			return BOp.B_LESS_THAN;
+		case B_GREATER_OR_EQUAL:
+			return BOp.B_LESS_OR_EQUAL;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the scale if {@code ast} is a multiplication by 2, 4 or 8 an
+	 * address can apply, or 0.
+	 */
+	static int scale(Expr ast) {
+		if (!(ast instanceof BinaryOp) || ((BinaryOp) ast).operator != BOp.B_TIMES)
+			return 0;
+		Expr factor = ((BinaryOp) ast).right();
+		if (!(factor instanceof IntConst))
+			return 0;
+		int value = ((IntConst) factor).value;
+		return value == 2 || value == 4 || value == 8 ? value : 0;
+	}
+
+	/** Returns the index of a {@link #scale(Expr) scaled} multiplication. */
+	static Expr scaled(Expr ast) {
+		return ((BinaryOp) ast).left();
+	}
+
+	/** Returns the address of element {@code index} of an array. */
+	static String elementAddress(Register arrReg, int index) {
+		return registerOffset(Config.SIZEOF_PTR * (2 + index), arrReg);
+	}
+}
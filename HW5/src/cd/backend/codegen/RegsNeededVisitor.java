@@ -9,6 +9,7 @@ import java.util.Map;
 import cd.ir.Ast;
 import cd.ir.Ast.Assign;
 import cd.ir.Ast.BinaryOp;
+import cd.ir.Ast.BinaryOp.BOp;
 import cd.ir.Ast.BooleanConst;
 import cd.ir.Ast.BuiltInRead;
 import cd.ir.Ast.Cast;
@@ -67,6 +68,21 @@ public class RegsNeededVisitor extends AstVisitor<Integer, Void> {
 
 	@Override
 	public Integer binaryOp(BinaryOp ast, Void arg) {
+		// Operands the instructions take directly need no register.
+		switch (InstructionSelector.select(ast)) {
+		case CONSTANT_ARITH:
+			if (ast.operator == BOp.B_TIMES && ast.left() instanceof IntConst)
+				return calc(ast.right());
+			return calc(ast.left());
+		case REG_OPERAND:
+			return calc(ast.left());
+		case OPERAND_REG:
+			return calc(ast.right());
+		case SCALED_ADD:
+			return max(calc(ast.left()), calc(InstructionSelector.scaled(ast.right())) + 1);
+		default:
+			break;
+		}
 		int left = calc(ast.left());
 		int right = calc(ast.right());
 		int ifLeftFirst = max(left, right+1);
@@ -97,6 +113,8 @@ public class RegsNeededVisitor extends AstVisitor<Integer, Void> {
 
 	@Override
 	public Integer index(Index ast, Void arg) {
+		if (InstructionSelector.select(ast) == InstructionSelector.Tile.CONSTANT_INDEX)
+			return calc(ast.left());
 		return max(calc(ast.left()), calc(ast.right()) + 1);
 	}
 	
@@ -8,6 +8,7 @@ import java.util.List;
 
 import cd.Config;
 import cd.ToDoException;
+import cd.backend.codegen.InstructionSelector.Tile;
 import cd.backend.codegen.RegisterManager.Register;
 import cd.ir.Ast;
 import cd.ir.Ast.Assign;
@@ -18,8 +19,11 @@ import cd.ir.Ast.Expr;
 import cd.ir.Ast.Field;
 import cd.ir.Ast.IfElse;
 import cd.ir.Ast.Index;
+import cd.ir.Ast.IntConst;
 import cd.ir.Ast.MethodCall;
+import cd.ir.Ast.MethodCallExpr;
 import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NullCheck;
 import cd.ir.Ast.ReturnStmt;
 import cd.ir.Ast.Var;
 import cd.ir.Ast.WhileLoop;
@@ -104,6 +108,11 @@ class StmtGenerator extends AstVisitor<Register, Void> {
 		throw new ToDoException();
 	}
 
+	@Override
+	public Register nullCheck(NullCheck ast, Void arg) {
+		throw new ToDoException();
+	}
+
 }
 
 /*
@@ -122,6 +131,15 @@ class StmtGeneratorRef extends StmtGenerator {
 
 	@Override
 	public Register methodCall(MethodSymbol mthSymbol, List<Expr> allArgs) {
+		return methodCall(mthSymbol, null, allArgs);
+	}
+
+	/**
+	 * Emits a call to {@code mthSymbol}. If {@code directTarget} is not
+	 * {@code null}, it is the only method the call can dispatch to and is
+	 * called directly rather than through the vtable.
+	 */
+	public Register methodCall(MethodSymbol mthSymbol, MethodSymbol directTarget, List<Expr> allArgs) {
 		// Push the arguments and the method prefix (caller save register,
 		// and padding) onto the stack.
 		// Note that the space for the arguments is not already reserved,
@@ -133,12 +151,19 @@ class StmtGeneratorRef extends StmtGenerator {
 
 		Register reg = null;
 		for (int i = 0; i < allArgs.size(); i++) {
+			// Constants and locals are pushed directly.
+			if (InstructionSelector.isOperand(allArgs.get(i))) {
+				cgRef.push(InstructionSelector.operand(allArgs.get(i)));
+				continue;
+			}
 			if (reg != null) {
 				cgRef.rm.releaseRegister(reg);
 			}
 			reg = cgRef.eg.gen(allArgs.get(i));
 			cgRef.push(reg.repr);
 		}
+		if (reg == null)
+			reg = cgRef.rm.getRegister();
 
 		// Since "this" is the first parameter that push
 		// we have to get it back to resolve the method call
@@ -146,17 +171,23 @@ class StmtGeneratorRef extends StmtGenerator {
 		cgRef.emit.emitLoad((allArgs.size() - 1) * Config.SIZEOF_PTR, STACK_REG, reg);
 
 		// Check for a null receiver
-		int cnPadding = cgRef.emitCallPrefix(null, 1);
-		cgRef.push(reg.repr);
-		cgRef.emit.emit("call", AstCodeGeneratorRef.CHECK_NULL);
-		cgRef.emitCallSuffix(null, 1, cnPadding);
+		if (!allArgs.get(0).nonNull) {
+			int cnPadding = cgRef.emitCallPrefix(null, 1);
+			cgRef.push(reg.repr);
+			cgRef.emit.emit("call", AstCodeGeneratorRef.CHECK_NULL);
+			cgRef.emitCallSuffix(null, 1, cnPadding);
+		}
 
-		// Load the address of the method to call into "reg"
-		// and call it indirectly.
-		cgRef.emit.emitLoad(0, reg, reg);
-		int mthdoffset = 4 + mthSymbol.vtableIndex * Config.SIZEOF_PTR;
-		cgRef.emit.emitLoad(mthdoffset, reg, reg);
-		cgRef.emit.emit("call", "*" + reg);
+		if (directTarget != null) {
+			cgRef.emit.emit("call", cgRef.methodLabel(directTarget));
+		} else {
+			// Load the address of the method to call into "reg"
+			// and call it indirectly.
+			cgRef.emit.emitLoad(0, reg, reg);
+			int mthdoffset = 4 + mthSymbol.vtableIndex * Config.SIZEOF_PTR;
+			cgRef.emit.emitLoad(mthdoffset, reg, reg);
+			cgRef.emit.emit("call", "*" + reg);
+		}
 
 		cgRef.emitCallSuffix(reg, allArgs.size(), padding);
 
@@ -226,6 +257,10 @@ class StmtGeneratorRef extends StmtGenerator {
 
 			@Override
 			public Void var(Var ast, Expr right) {
+				if (InstructionSelector.select(right) == Tile.IMMEDIATE) {
+					cgRef.emit.emitStore(InstructionSelector.operand(right), ast.sym.offset, BASE_REG);
+					return null;
+				}
 				final Register rhsReg = cgRef.eg.gen(right);
 				cgRef.emit.emitStore(rhsReg, ast.sym.offset, BASE_REG);
 				cgRef.rm.releaseRegister(rhsReg);
@@ -234,47 +269,87 @@ class StmtGeneratorRef extends StmtGenerator {
 
 			@Override
 			public Void field(Field ast, Expr right) {
-				final Register rhsReg = cgRef.eg.gen(right);
-				Pair<Register> regs = cgRef.egRef.genPushing(rhsReg, ast.arg());
-				int padding = cgRef.emitCallPrefix(null, 1);
-				cgRef.push(regs.b.repr);
-				cgRef.emit.emit("call", AstCodeGeneratorRef.CHECK_NULL);
-				cgRef.emitCallSuffix(null, 1, padding);
+				// Constants are stored directly, without a register.
+				boolean immediate = InstructionSelector.select(right) == Tile.IMMEDIATE;
+				Register rhsReg = null;
+				Register objReg;
+				if (immediate) {
+					objReg = cgRef.eg.gen(ast.arg());
+				} else {
+					rhsReg = cgRef.eg.gen(right);
+					Pair<Register> regs = cgRef.egRef.genPushing(rhsReg, ast.arg());
+					rhsReg = regs.a;
+					objReg = regs.b;
+				}
+				if (InstructionSelector.select(ast) != Tile.THIS_FIELD && !ast.arg().nonNull) {
+					int padding = cgRef.emitCallPrefix(null, 1);
+					cgRef.push(objReg.repr);
+					cgRef.emit.emit("call", AstCodeGeneratorRef.CHECK_NULL);
+					cgRef.emitCallSuffix(null, 1, padding);
+				}
 				
-				cgRef.emit.emitStore(regs.a, ast.sym.offset, regs.b);
-				cgRef.rm.releaseRegister(regs.b);
-				cgRef.rm.releaseRegister(regs.a);
+				if (immediate) {
+					cgRef.emit.emitStore(InstructionSelector.operand(right), ast.sym.offset, objReg);
+				} else {
+					cgRef.emit.emitStore(rhsReg, ast.sym.offset, objReg);
+					cgRef.rm.releaseRegister(rhsReg);
+				}
+				cgRef.rm.releaseRegister(objReg);
 				
 				return null;
 			}
 
 			@Override
 			public Void index(Index ast, Expr right) {
-				Register rhsReg = cgRef.egRef.gen(right);
-				
-				Pair<Register> regs = cgRef.egRef.genPushing(rhsReg, ast.left());
-				rhsReg = regs.a;
-				Register arrReg = regs.b;
-				int padding = cgRef.emitCallPrefix(null, 1);
-				cgRef.push(arrReg.repr);
-				cgRef.emit.emit("call", AstCodeGeneratorRef.CHECK_NULL);
-				cgRef.emitCallSuffix(null, 1, padding);
+				// Constants are stored directly, and constant indices are
+				// folded into the address.
+				boolean immediate = InstructionSelector.select(right) == Tile.IMMEDIATE;
+				boolean constantIndex = InstructionSelector.select(ast) == Tile.CONSTANT_INDEX;
+				Register rhsReg = null;
+				Register arrReg;
+				if (immediate) {
+					arrReg = cgRef.egRef.gen(ast.left());
+				} else {
+					rhsReg = cgRef.egRef.gen(right);
+					Pair<Register> regs = cgRef.egRef.genPushing(rhsReg, ast.left());
+					rhsReg = regs.a;
+					arrReg = regs.b;
+				}
+				int padding;
+				if (!ast.left().nonNull) {
+					padding = cgRef.emitCallPrefix(null, 1);
+					cgRef.push(arrReg.repr);
+					cgRef.emit.emit("call", AstCodeGeneratorRef.CHECK_NULL);
+					cgRef.emitCallSuffix(null, 1, padding);
+				}
 				
-				regs = cgRef.egRef.genPushing(arrReg, ast.right());
-				arrReg = regs.a;
-				Register idxReg = regs.b;
+				Register idxReg = null;
+				String index;
+				if (constantIndex) {
+					index = InstructionSelector.operand(ast.right());
+				} else {
+					Pair<Register> regs = cgRef.egRef.genPushing(arrReg, ast.right());
+					arrReg = regs.a;
+					idxReg = regs.b;
+					index = idxReg.repr;
+				}
 				
 				// Check array bounds
 				padding = cgRef.emitCallPrefix(null, 2);
-				cgRef.push(idxReg.repr);
+				cgRef.push(index);
 				cgRef.push(arrReg.repr);
 				cgRef.emit.emit("call", AstCodeGeneratorRef.CHECK_ARRAY_BOUNDS);
 				cgRef.emitCallSuffix(null, 2, padding);
 				
-				cgRef.emit.emitMove(rhsReg, arrayAddress(arrReg, idxReg));
+				String address = constantIndex
+						? InstructionSelector.elementAddress(arrReg, ((IntConst) ast.right()).value)
+						: arrayAddress(arrReg, idxReg);
+				cgRef.emit.emitMove(immediate ? InstructionSelector.operand(right) : rhsReg.repr, address);
 				cgRef.rm.releaseRegister(arrReg);
-				cgRef.rm.releaseRegister(idxReg);
-				cgRef.rm.releaseRegister(rhsReg);
+				if (idxReg != null)
+					cgRef.rm.releaseRegister(idxReg);
+				if (rhsReg != null)
+					cgRef.rm.releaseRegister(rhsReg);
 
 				return null;
 			}
@@ -292,6 +367,13 @@ class StmtGeneratorRef extends StmtGenerator {
 
 	@Override
 	public Register builtInWrite(BuiltInWrite ast, Void arg) {
+		if (InstructionSelector.isOperand(ast.arg())) {
+			int padding = cgRef.emitCallPrefix(null, 1);
+			cgRef.push(InstructionSelector.operand(ast.arg()));
+			cgRef.emit.emit("call", AstCodeGeneratorRef.PRINT_INTEGER);
+			cgRef.emitCallSuffix(null, 1, padding);
+			return null;
+		}
 		Register reg = cgRef.eg.gen(ast.arg());
 		int padding = cgRef.emitCallPrefix(null, 1);
 		cgRef.push(reg.repr);
@@ -312,7 +394,9 @@ class StmtGeneratorRef extends StmtGenerator {
 
 	@Override
 	public Register returnStmt(ReturnStmt ast, Void arg) {
-		if (ast.arg() != null) {
+		if (ast.arg() instanceof MethodCallExpr && canJumpTo((MethodCallExpr) ast.arg())) {
+			tailCall((MethodCallExpr) ast.arg());
+		} else if (ast.arg() != null) {
 			Register reg = cgRef.eg.gen(ast.arg());
 			cgRef.emit.emitMove(reg, "%eax");
 			cgRef.emitMethodSuffix(false);
@@ -325,4 +409,62 @@ class StmtGeneratorRef extends StmtGenerator {
 		return null;
 	}
 
+	/**
+	 * Returns whether {@code call}, whose result is returned, can be made by
+	 * a jump reusing the current frame: its target must be known, and its
+	 * arguments must fit into the slots of our own arguments.
+	 */
+	private boolean canJumpTo(MethodCallExpr call) {
+		if (call.directTarget == null)
+			return false;
+		int lastSlot = Config.SIZEOF_PTR * 2 + call.directTarget.parameters.size() * Config.SIZEOF_PTR;
+		return lastSlot <= cgRef.THIS_OFFSET;
+	}
+
+	/**
+	 * Emits a tail call: the arguments overwrite our own, and once our frame
+	 * is gone we jump to the target, which then returns straight to our
+	 * caller. Our caller pops the argument slots of our call, which are at
+	 * least as many as the target uses.
+	 */
+	private void tailCall(MethodCallExpr call) {
+		List<Expr> allArgs = call.allArguments();
+		for (Expr expr : allArgs) {
+			Register reg = cgRef.eg.gen(expr);
+			cgRef.push(reg.repr);
+			cgRef.rm.releaseRegister(reg);
+		}
+
+		Register reg = cgRef.rm.getRegister();
+		cgRef.emit.emitComment("Load \"this\" pointer");
+		cgRef.emit.emitLoad((allArgs.size() - 1) * Config.SIZEOF_PTR, STACK_REG, reg);
+		if (!call.receiver().nonNull) {
+			int padding = cgRef.emitCallPrefix(null, 1);
+			cgRef.push(reg.repr);
+			cgRef.emit.emit("call", AstCodeGeneratorRef.CHECK_NULL);
+			cgRef.emitCallSuffix(null, 1, padding);
+		}
+		cgRef.rm.releaseRegister(reg);
+
+		// The last argument goes into the lowest slot.
+		for (int i = 0; i < allArgs.size(); i++)
+			cgRef.pop(AssemblyEmitter.registerOffset(Config.SIZEOF_PTR * (2 + i), BASE_REG));
+
+		cgRef.restoreCalleeSaveRegs();
+		cgRef.emit.emitRaw("leave");
+		cgRef.emit.emit("jmp", cgRef.methodLabel(call.directTarget));
+	}
+
+	@Override
+	public Register nullCheck(NullCheck ast, Void arg) {
+		Register reg = cgRef.eg.gen(ast.arg());
+		int padding = cgRef.emitCallPrefix(null, 1);
+		cgRef.push(reg.repr);
+		cgRef.emit.emit("call", AstCodeGeneratorRef.CHECK_NULL);
+		cgRef.emitCallSuffix(null, 1, padding);
+		cgRef.rm.releaseRegister(reg);
+
+		return null;
+	}
+
 }
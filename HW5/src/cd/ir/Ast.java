@@ -84,6 +84,14 @@ public abstract class Ast {
 		/** Type that this expression will evaluate to (computed in semantic phase). */
 		public TypeSymbol type;
 		
+		/**
+		 * Whether this expression is known to never be {@code null} where it
+		 * is evaluated (computed in the optimization phase), so that it needs
+		 * no null check. It is not copied, as a copy may be evaluated
+		 * elsewhere.
+		 */
+		public boolean nonNull;
+		
 		@Override
         public <R,A> R accept(AstVisitor<R, A> visitor, A arg) {
 			return this.accept((ExprVisitor<R,A>)visitor, arg);
@@ -214,7 +222,7 @@ public abstract class Ast {
 		
 		@Override
 		public BinaryOp deepCopy() {
-			return postCopy(new BinaryOp(left(), operator, right()));
+			return postCopy(new BinaryOp((Expr) left().deepCopy(), operator, (Expr) right().deepCopy()));
 		}
 
 	}
@@ -236,7 +244,7 @@ public abstract class Ast {
 		
 		@Override
 		public Cast deepCopy() {
-			return postCopy(new Cast(arg(), typeName));
+			return postCopy(new Cast((Expr) arg().deepCopy(), typeName));
 		}
 
 		@Override
@@ -318,7 +326,7 @@ public abstract class Ast {
 		
 		@Override
 		public Field deepCopy() {
-			return postCopy(new Field(arg(), fieldName));
+			return postCopy(new Field((Expr) arg().deepCopy(), fieldName));
 		}
 		
 		@Override
@@ -342,7 +350,7 @@ public abstract class Ast {
 		
 		@Override
 		public Index deepCopy() {
-			return postCopy(new Index(left(), right()));
+			return postCopy(new Index((Expr) left().deepCopy(), (Expr) right().deepCopy()));
 		}
 		
 	}
@@ -385,7 +393,7 @@ public abstract class Ast {
 		
 		@Override
 		public NewArray deepCopy() {
-			return postCopy(new NewArray(typeName, arg()));
+			return postCopy(new NewArray(typeName, (Expr) arg().deepCopy()));
 		}
 		
 	}
@@ -414,7 +422,7 @@ public abstract class Ast {
 		
 		@Override
 		public UnaryOp deepCopy() {
-			return postCopy(new UnaryOp(operator, arg()));
+			return postCopy(new UnaryOp(operator, (Expr) arg().deepCopy()));
 		}
 		
 	}
@@ -487,6 +495,13 @@ public abstract class Ast {
 		
 		public MethodSymbol sym;
 		
+		/**
+		 * The only method this call can dispatch to, if it is known (computed
+		 * in the optimization phase). The call then does not need to go
+		 * through the vtable.
+		 */
+		public MethodSymbol directTarget;
+		
 		public MethodCallExpr(Expr rcvr, String methodName, List<Expr> arguments) {
 			super(-1);
 			assert rcvr != null && methodName != null && arguments != null;
@@ -546,6 +561,13 @@ public abstract class Ast {
 			return postCopy(new MethodCallExpr((Expr) receiver().deepCopy(), methodName, deepCopyArguments()));
 		}
 		
+		@Override
+		protected <E extends Expr> E postCopy(E item) {
+			((MethodCallExpr)item).sym = sym;
+			((MethodCallExpr)item).directTarget = directTarget;
+			return super.postCopy(item);
+		}
+		
 	}
 	
 	// _________________________________________________________________
@@ -702,6 +724,35 @@ public abstract class Ast {
 		
 	}
 	
+	/**
+	 * Fails with a null pointer error if {@code arg()} evaluates to
+	 * {@code null}, and has no effect otherwise. Not produced by the parser:
+	 * optimizations insert it where they remove a dereference that would
+	 * have performed the check, e.g. the receiver of an inlined call.
+	 */
+	public static class NullCheck extends Stmt {
+		
+		public NullCheck(Expr arg) {
+			super(1);
+			assert arg != null;
+			setArg(arg);
+		}
+
+		public Expr arg() { return (Expr) this.rwChildren.get(0); }
+		public void setArg(Expr node) { this.rwChildren.set(0, node); }
+		
+		@Override
+		public <R, A> R accept(AstVisitor<R, A> visitor, A arg) {
+			return visitor.nullCheck(this, arg);
+		}
+
+		@Override
+		public Ast deepCopy() {
+			return new NullCheck((Expr) arg().deepCopy());
+		}
+		
+	}
+	
 	public static class MethodCall extends Stmt {
 		
 		public MethodCall(MethodCallExpr mce) {
@@ -95,6 +95,10 @@ public class AstVisitor<R,A> extends ExprVisitor<R,A> {
 	public R nop(Ast.Nop ast, A arg) {
 		return dfltStmt(ast, arg);
 	}
+
+	public R nullCheck(Ast.NullCheck ast, A arg) {
+		return dfltStmt(ast, arg);
+	}
 	
 	public R seq(Ast.Seq ast, A arg) {
 		return dflt(ast, arg);
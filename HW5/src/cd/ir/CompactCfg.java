@@ -0,0 +1,131 @@
+package cd.ir;
+
+import java.util.List;
+
+/**
+ * An immutable, array-based view of a {@link ControlFlowGraph}, for analyses
+ * that walk the graph many times. Blocks are identified by their
+ * {@link BasicBlock#index index}; the successors and predecessors of all
+ * blocks are stored in two int arrays each (compressed sparse row form), and
+ * the postorder and reverse postorder of the blocks are precomputed. Analysis
+ * state can be kept in arrays indexed by block index.
+ * <p>
+ * Obtain the view with {@link ControlFlowGraph#compact()}, which builds it
+ * once and caches it until the graph is changed.
+ */
+public final class CompactCfg {
+
+	private final BasicBlock[] blocks;
+	private final int start, end;
+
+	// The successors of block b are succ[succStart[b]] to
+	// succ[succStart[b + 1] - 1], and likewise for predecessors.
+	private final int[] succStart, succ;
+	private final int[] predStart, pred;
+
+	private final int[] postOrder;
+	private final int[] postOrderNumber;
+
+	CompactCfg(ControlFlowGraph cfg) {
+		int n = cfg.count();
+		blocks = cfg.allBlocks.toArray(new BasicBlock[n]);
+		for (int i = 0; i < n; i++)
+			if (blocks[i].index != i)
+				throw new IllegalStateException("block indices are not dense");
+		start = cfg.start == null ? -1 : cfg.start.index;
+		end = cfg.end == null ? -1 : cfg.end.index;
+
+		succStart = new int[n + 1];
+		predStart = new int[n + 1];
+		for (int b = 0; b < n; b++) {
+			succStart[b + 1] = succStart[b] + blocks[b].successors.size();
+			predStart[b + 1] = predStart[b] + blocks[b].predecessors.size();
+		}
+		succ = new int[succStart[n]];
+		pred = new int[predStart[n]];
+		for (int b = 0; b < n; b++) {
+			fill(succ, succStart[b], blocks[b].successors);
+			fill(pred, predStart[b], blocks[b].predecessors);
+		}
+
+		List<BasicBlock> order = cfg.postOrder();
+		postOrder = new int[n];
+		postOrderNumber = new int[n];
+		for (int i = 0; i < n; i++) {
+			postOrder[i] = order.get(i).index;
+			postOrderNumber[postOrder[i]] = i;
+		}
+	}
+
+	private static void fill(int[] target, int offset, List<BasicBlock> blocks) {
+		for (int i = 0; i < blocks.size(); i++)
+			target[offset + i] = blocks.get(i).index;
+	}
+
+	/** Returns the number of blocks. */
+	public int count() {
+		return blocks.length;
+	}
+
+	public BasicBlock block(int index) {
+		return blocks[index];
+	}
+
+	/** Returns the index of the start block, or -1 if there is none. */
+	public int start() {
+		return start;
+	}
+
+	/** Returns the index of the end block, or -1 if there is none. */
+	public int end() {
+		return end;
+	}
+
+	public int successorCount(int block) {
+		return succStart[block + 1] - succStart[block];
+	}
+
+	/** Returns the index of the <code>i</code>-th successor of a block. */
+	public int successor(int block, int i) {
+		return succ[succStart[block] + i];
+	}
+
+	public int predecessorCount(int block) {
+		return predStart[block + 1] - predStart[block];
+	}
+
+	/** Returns the index of the <code>i</code>-th predecessor of a block. */
+	public int predecessor(int block, int i) {
+		return pred[predStart[block] + i];
+	}
+
+	/**
+	 * Returns the index of the block at position <code>i</code> in
+	 * postorder.
+	 *
+	 * @see ControlFlowGraph#postOrder()
+	 */
+	public int postOrder(int i) {
+		return postOrder[i];
+	}
+
+	/** Returns the position of a block in postorder. */
+	public int postOrderNumber(int block) {
+		return postOrderNumber[block];
+	}
+
+	/**
+	 * Returns the index of the block at position <code>i</code> in reverse
+	 * postorder.
+	 *
+	 * @see ControlFlowGraph#reversePostOrder()
+	 */
+	public int reversePostOrder(int i) {
+		return postOrder[postOrder.length - 1 - i];
+	}
+
+	/** Returns the position of a block in reverse postorder. */
+	public int reversePostOrderNumber(int block) {
+		return postOrder.length - 1 - postOrderNumber[block];
+	}
+}
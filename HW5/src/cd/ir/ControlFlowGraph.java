@@ -1,6 +1,7 @@
 package cd.ir;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import cd.ir.Ast.Expr;
@@ -10,6 +11,9 @@ public class ControlFlowGraph {
 	public BasicBlock start, end;
 	public final List<BasicBlock> allBlocks = new ArrayList<BasicBlock>();
 	
+	// Cached compact view, dropped by every method changing the graph.
+	private CompactCfg compact;
+	
 	public int count() {
 		return allBlocks.size();
 	}
@@ -17,6 +21,7 @@ public class ControlFlowGraph {
 	public BasicBlock newBlock() {
 		BasicBlock blk = new BasicBlock(count());
 		allBlocks.add(blk);
+		compact = null;
 		return blk;
 	}
 	
@@ -27,6 +32,7 @@ public class ControlFlowGraph {
 	 */
 	public BasicBlock join(BasicBlock... pred) {
 		BasicBlock result = newBlock();
+		compact = null;
 		for (BasicBlock p : pred) {
 			assert p.condition == null;
 			assert p.successors.size() == 0;
@@ -46,6 +52,7 @@ public class ControlFlowGraph {
 		assert blk.condition == null;
 		assert blk.successors.size() == 0;
 		blk.condition = cond;
+		compact = null;
 		blk.successors.add(newBlock());
 		blk.successors.add(newBlock());
 		blk.trueSuccessor().predecessors.add(blk);
@@ -53,7 +60,82 @@ public class ControlFlowGraph {
 	}
 
 	public void connect(BasicBlock from, BasicBlock to) {
+		compact = null;
 		to.predecessors.add(from);
 		from.successors.add(to);
 	}
+
+	/**
+	 * Returns the {@link CompactCfg compact view} of this graph, building it
+	 * if the graph has changed since it was last requested. Changes made
+	 * directly to the block and edge lists (rather than through the methods
+	 * of this class) must be followed by {@link #structureChanged()}.
+	 */
+	public CompactCfg compact() {
+		if (compact == null)
+			compact = new CompactCfg(this);
+		return compact;
+	}
+
+	/**
+	 * Drops the cached compact view after the blocks or edges have been
+	 * changed directly.
+	 */
+	public void structureChanged() {
+		compact = null;
+	}
+
+	/**
+	 * Returns the blocks reachable from {@link #start} in depth-first
+	 * postorder, i.e. every block appears after all of its successors
+	 * except those reached through a back edge. Blocks that cannot be
+	 * reached from {@link #start} are appended at the end in index order,
+	 * so the result always contains every block exactly once.
+	 */
+	public List<BasicBlock> postOrder() {
+		List<BasicBlock> order = new ArrayList<BasicBlock>(count());
+		boolean[] visited = new boolean[count()];
+
+		// Explicit stack of (block, next successor) to avoid deep recursion
+		// on long chains of blocks.
+		BasicBlock[] stack = new BasicBlock[count()];
+		int[] next = new int[count()];
+		int top = 0;
+
+		if (start != null) {
+			stack[top++] = start;
+			visited[start.index] = true;
+		}
+		while (top > 0) {
+			BasicBlock blk = stack[top - 1];
+			if (next[top - 1] < blk.successors.size()) {
+				BasicBlock succ = blk.successors.get(next[top - 1]++);
+				if (!visited[succ.index]) {
+					visited[succ.index] = true;
+					stack[top] = succ;
+					next[top] = 0;
+					top++;
+				}
+			} else {
+				order.add(blk);
+				top--;
+			}
+		}
+
+		for (BasicBlock blk : allBlocks)
+			if (!visited[blk.index])
+				order.add(blk);
+		return order;
+	}
+
+	/**
+	 * Returns the blocks in reverse postorder: outside of loops, every
+	 * block appears before all of its successors.
+	 * @see #postOrder()
+	 */
+	public List<BasicBlock> reversePostOrder() {
+		List<BasicBlock> order = postOrder();
+		Collections.reverse(order);
+		return order;
+	}
 }
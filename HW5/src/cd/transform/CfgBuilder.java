@@ -21,7 +21,7 @@ public class CfgBuilder extends AstVisitor<BasicBlock, BasicBlock>{
         cfg.end = cfg.newBlock(); // unique exit block to which all blocks that end with a return stmt. lead
         
         BasicBlock lastBlock = visit(mdecl, cfg.start);
-        if(!cfg.end.predecessors.contains(lastBlock)){
+        if(lastBlock != null && !lastBlock.successors.contains(cfg.end)){
             cfg.connect(lastBlock, cfg.end);
         }
 		
@@ -31,8 +31,13 @@ public class CfgBuilder extends AstVisitor<BasicBlock, BasicBlock>{
 
     @Override
     public BasicBlock seq(Seq ast, BasicBlock arg){
-        for(Ast child : ast.children())
+        for(Ast child : ast.children()){
+            // Statements after a return get a block of their own, which
+            // cannot be reached.
+            if(arg == null && child instanceof Stmt)
+                arg = cfg.newBlock();
             arg = visit(child, arg);
+        }
         return arg;
     }
 
@@ -46,8 +51,14 @@ public class CfgBuilder extends AstVisitor<BasicBlock, BasicBlock>{
             otherwise = visit(ast.otherwise(), block.falseSuccessor());
         }
         
+        // A branch ending in a return does not flow into the rest.
+        if(then == null && otherwise == null && ast.otherwise() != null){
+            return null;
+        }
         BasicBlock rest = cfg.newBlock();
-        cfg.connect(then, rest);
+        if(then != null){
+            cfg.connect(then, rest);
+        }
         if(otherwise != null){
             cfg.connect(otherwise, rest);
         }
@@ -63,7 +74,10 @@ public class CfgBuilder extends AstVisitor<BasicBlock, BasicBlock>{
         test.condition = ast.condition();
         cfg.connect(block, test);
         cfg.connect(test, body);
-        cfg.connect(visit(ast.body(), body), test);
+        BasicBlock last = visit(ast.body(), body);
+        if(last != null){
+            cfg.connect(last, test);
+        }
 
         cfg.connect(test, rest);
         return rest;
@@ -72,7 +86,8 @@ public class CfgBuilder extends AstVisitor<BasicBlock, BasicBlock>{
     @Override
     public BasicBlock returnStmt(ReturnStmt ast, BasicBlock block){
         cfg.connect(block, cfg.end);
-        return dfltStmt(ast, block);
+        dfltStmt(ast, block);
+        return null;
     }
 
     @Override
@@ -0,0 +1,270 @@
+package cd.transform;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cd.ir.Ast.BooleanConst;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.ReturnStmt;
+import cd.ir.BasicBlock;
+import cd.ir.ControlFlowGraph;
+import cd.transform.analysis.AnalysisManager;
+import cd.transform.analysis.PreservedAnalyses;
+
+/**
+ * Simplifies the control flow graph of a method:
+ * <ul>
+ * <li>statements after a <code>return</code> are deleted, and a returning
+ * block only flows into {@link ControlFlowGraph#end},</li>
+ * <li>conditions that are boolean constants are replaced by a jump to the
+ * successor that is always taken,</li>
+ * <li>blocks that cannot be reached from {@link ControlFlowGraph#start} are
+ * deleted,</li>
+ * <li>empty blocks with a single successor are bypassed, and</li>
+ * <li>a block with a single successor is merged with that successor if it is
+ * the successor's only predecessor.</li>
+ * </ul>
+ * Afterwards, the method gets a new {@link ControlFlowGraph} whose blocks are
+ * numbered densely in reverse postorder.
+ */
+public class CfgSimplifier implements MethodPass {
+
+	@Override
+	public PreservedAnalyses run(MethodDecl method, AnalysisManager analyses) {
+		ControlFlowGraph cfg = method.cfg;
+		int blocks = cfg.count();
+
+		boolean changed = truncateReturns(cfg);
+		boolean progress = true;
+		while (progress) {
+			progress = foldConstantConditions(cfg);
+			progress |= removeUnreachable(cfg);
+			progress |= bypassEmptyBlocks(cfg);
+			progress |= mergeChains(cfg);
+			changed |= progress;
+		}
+
+		if (!changed && blocks == cfg.count())
+			return PreservedAnalyses.all();
+		method.cfg = renumber(cfg);
+		return PreservedAnalyses.none();
+	}
+
+	/**
+	 * Deletes the statements following the first <code>return</code> of each
+	 * block, and makes the block flow into the end block only.
+	 */
+	private boolean truncateReturns(ControlFlowGraph cfg) {
+		boolean changed = false;
+		for (BasicBlock block : cfg.allBlocks) {
+			for (int i = 0; i < block.stmts.size(); i++) {
+				if (!(block.stmts.get(i) instanceof ReturnStmt))
+					continue;
+				boolean onlyEnd = block.successors.size() == 1 && block.successors.get(0) == cfg.end;
+				if (i == block.stmts.size() - 1 && block.condition == null && onlyEnd)
+					break;
+
+				block.stmts.subList(i + 1, block.stmts.size()).clear();
+				block.condition = null;
+				disconnectSuccessors(block);
+				cfg.connect(block, cfg.end);
+				changed = true;
+				break;
+			}
+		}
+		return changed;
+	}
+
+	private boolean foldConstantConditions(ControlFlowGraph cfg) {
+		boolean changed = false;
+		for (BasicBlock block : cfg.allBlocks) {
+			if (!(block.condition instanceof BooleanConst))
+				continue;
+			BasicBlock taken = ((BooleanConst) block.condition).value ? block.trueSuccessor() : block.falseSuccessor();
+			block.condition = null;
+			disconnectSuccessors(block);
+			cfg.connect(block, taken);
+			changed = true;
+		}
+		return changed;
+	}
+
+	/**
+	 * Deletes all blocks not reachable from the start block. The end block is
+	 * always kept, even if no path leads to it.
+	 */
+	private boolean removeUnreachable(ControlFlowGraph cfg) {
+		boolean[] reachable = new boolean[indexBound(cfg)];
+		List<BasicBlock> worklist = new ArrayList<BasicBlock>();
+		worklist.add(cfg.start);
+		reachable[cfg.start.index] = true;
+		while (!worklist.isEmpty()) {
+			BasicBlock block = worklist.remove(worklist.size() - 1);
+			for (BasicBlock succ : block.successors) {
+				if (!reachable[succ.index]) {
+					reachable[succ.index] = true;
+					worklist.add(succ);
+				}
+			}
+		}
+
+		boolean changed = false;
+		for (BasicBlock block : new ArrayList<BasicBlock>(cfg.allBlocks)) {
+			if (reachable[block.index] || block == cfg.end)
+				continue;
+			disconnectSuccessors(block);
+			cfg.allBlocks.remove(block);
+			changed = true;
+		}
+		return changed;
+	}
+
+	/**
+	 * Redirects the predecessors of each empty, unconditional block directly
+	 * to its successor and deletes the block.
+	 */
+	private boolean bypassEmptyBlocks(ControlFlowGraph cfg) {
+		boolean changed = false;
+		for (BasicBlock block : new ArrayList<BasicBlock>(cfg.allBlocks)) {
+			if (block == cfg.start || block == cfg.end || !block.stmts.isEmpty() || block.condition != null)
+				continue;
+			if (block.successors.size() != 1)
+				continue;
+			BasicBlock succ = block.successors.get(0);
+			if (succ == block)
+				continue;
+
+			for (BasicBlock pred : block.predecessors) {
+				replaceAll(pred.successors, block, succ);
+				succ.predecessors.add(pred);
+			}
+			succ.predecessors.remove(block);
+			cfg.allBlocks.remove(block);
+			changed = true;
+		}
+		return changed;
+	}
+
+	/**
+	 * Appends each block to its unique, unconditional predecessor, if that
+	 * predecessor has no other successor.
+	 */
+	private boolean mergeChains(ControlFlowGraph cfg) {
+		boolean changed = false;
+		for (BasicBlock block : new ArrayList<BasicBlock>(cfg.allBlocks)) {
+			if (!cfg.allBlocks.contains(block) || block.condition != null || block.successors.size() != 1)
+				continue;
+			BasicBlock succ = block.successors.get(0);
+			if (succ == block || succ == cfg.start || succ.predecessors.size() != 1 || endsInReturn(block))
+				continue;
+
+			block.stmts.addAll(succ.stmts);
+			block.condition = succ.condition;
+			block.successors.clear();
+			for (BasicBlock next : succ.successors) {
+				block.successors.add(next);
+				replaceAll(next.predecessors, succ, block);
+			}
+			if (succ == cfg.end)
+				cfg.end = block;
+			cfg.allBlocks.remove(succ);
+			changed = true;
+		}
+		return changed;
+	}
+
+	private boolean endsInReturn(BasicBlock block) {
+		return !block.stmts.isEmpty() && block.stmts.get(block.stmts.size() - 1) instanceof ReturnStmt;
+	}
+
+	/**
+	 * Copies the graph into a new {@link ControlFlowGraph} with blocks
+	 * numbered in reverse postorder.
+	 */
+	private ControlFlowGraph renumber(ControlFlowGraph cfg) {
+		ControlFlowGraph result = new ControlFlowGraph();
+		Map<BasicBlock, BasicBlock> copies = new HashMap<BasicBlock, BasicBlock>();
+		List<BasicBlock> order = reversePostOrder(cfg);
+		for (BasicBlock block : order) {
+			BasicBlock copy = result.newBlock();
+			copy.stmts.addAll(block.stmts);
+			copy.condition = block.condition;
+			copies.put(block, copy);
+		}
+		for (BasicBlock block : order) {
+			BasicBlock copy = copies.get(block);
+			for (BasicBlock succ : block.successors)
+				copy.successors.add(copies.get(succ));
+			for (BasicBlock pred : block.predecessors)
+				copy.predecessors.add(copies.get(pred));
+		}
+		result.start = copies.get(cfg.start);
+		result.end = copies.get(cfg.end);
+		result.structureChanged();
+		return result;
+	}
+
+	/**
+	 * Returns the blocks of <code>cfg</code> in reverse postorder, followed
+	 * by any unreachable blocks. Unlike {@link ControlFlowGraph#postOrder()},
+	 * this does not rely on the block indices being dense.
+	 */
+	private List<BasicBlock> reversePostOrder(ControlFlowGraph cfg) {
+		List<BasicBlock> postOrder = new ArrayList<BasicBlock>();
+		Set<BasicBlock> visited = new HashSet<BasicBlock>();
+		Deque<BasicBlock> stack = new ArrayDeque<BasicBlock>();
+		Deque<Integer> next = new ArrayDeque<Integer>();
+
+		visited.add(cfg.start);
+		stack.push(cfg.start);
+		next.push(0);
+		while (!stack.isEmpty()) {
+			BasicBlock block = stack.peek();
+			int i = next.pop();
+			if (i < block.successors.size()) {
+				next.push(i + 1);
+				BasicBlock succ = block.successors.get(i);
+				if (visited.add(succ)) {
+					stack.push(succ);
+					next.push(0);
+				}
+			} else {
+				stack.pop();
+				postOrder.add(block);
+			}
+		}
+
+		List<BasicBlock> order = new ArrayList<BasicBlock>(postOrder);
+		Collections.reverse(order);
+		for (BasicBlock block : cfg.allBlocks)
+			if (!visited.contains(block))
+				order.add(block);
+		return order;
+	}
+
+	private void disconnectSuccessors(BasicBlock block) {
+		for (BasicBlock succ : block.successors)
+			succ.predecessors.remove(block);
+		block.successors.clear();
+	}
+
+	private static void replaceAll(List<BasicBlock> blocks, BasicBlock from, BasicBlock to) {
+		for (int i = 0; i < blocks.size(); i++)
+			if (blocks.get(i) == from)
+				blocks.set(i, to);
+	}
+
+	private static int indexBound(ControlFlowGraph cfg) {
+		int bound = 0;
+		for (BasicBlock block : cfg.allBlocks)
+			bound = Math.max(bound, block.index + 1);
+		return bound;
+	}
+}
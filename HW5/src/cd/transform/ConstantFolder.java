@@ -0,0 +1,233 @@
+package cd.transform;
+
+import cd.ir.Ast;
+import cd.ir.Ast.BinaryOp;
+import cd.ir.Ast.BinaryOp.BOp;
+import cd.ir.Ast.BooleanConst;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.IntConst;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NullConst;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.UnaryOp;
+import cd.ir.Ast.UnaryOp.UOp;
+import cd.ir.Ast.Var;
+import cd.ir.AstRewriteVisitor;
+import cd.ir.BasicBlock;
+import cd.ir.Symbol.PrimitiveTypeSymbol;
+import cd.transform.analysis.AnalysisManager;
+import cd.transform.analysis.PreservedAnalyses;
+import cd.transform.analysis.SideEffectSummaries;
+
+/**
+ * Evaluates operators whose operands are constants, and simplifies
+ * operators by algebraic identities such as <code>x + 0 = x</code>,
+ * <code>!!b = b</code> or <code>b == true = b</code>. Integer arithmetic
+ * wraps around at 32 bits, like the generated code. Divisions that trap at
+ * run time, by zero or of the smallest integer by <code>-1</code>, are left
+ * alone, and operands are only dropped if the {@link SideEffectSummaries}
+ * show that evaluating them has no effect.
+ * <p>
+ * Conditions that become constant are left for the {@link CfgSimplifier}.
+ */
+public class ConstantFolder implements MethodPass {
+
+	@Override
+	public PreservedAnalyses run(MethodDecl method, AnalysisManager analyses) {
+		final SideEffectSummaries effects = analyses.getProgram(SideEffectSummaries.class);
+		final boolean[] changed = { false };
+		AstRewriteVisitor<Void> folder = new AstRewriteVisitor<Void>() {
+			@Override
+			public Ast binaryOp(BinaryOp ast, Void arg) {
+				super.binaryOp(ast, arg);
+				return replaced(ast, fold(ast, effects));
+			}
+
+			@Override
+			public Ast unaryOp(UnaryOp ast, Void arg) {
+				super.unaryOp(ast, arg);
+				return replaced(ast, fold(ast));
+			}
+
+			private Expr replaced(Expr ast, Expr result) {
+				changed[0] |= result != ast;
+				return result;
+			}
+		};
+		for (BasicBlock block : method.cfg.allBlocks) {
+			for (Stmt stmt : block.stmts)
+				folder.visit(stmt, null);
+			if (block.condition != null)
+				block.condition = (Expr) folder.visit(block.condition, null);
+		}
+		return changed[0] ? PreservedAnalyses.none() : PreservedAnalyses.all();
+	}
+
+	private static Expr fold(UnaryOp ast) {
+		Expr operand = ast.arg();
+		switch (ast.operator) {
+		case U_PLUS:
+			return operand;
+		case U_MINUS:
+			if (operand instanceof IntConst)
+				return intConst(-((IntConst) operand).value);
+			if (operand instanceof UnaryOp && ((UnaryOp) operand).operator == UOp.U_MINUS)
+				return ((UnaryOp) operand).arg();
+			return ast;
+		case U_BOOL_NOT:
+			if (operand instanceof BooleanConst)
+				return booleanConst(!((BooleanConst) operand).value);
+			if (operand instanceof UnaryOp && ((UnaryOp) operand).operator == UOp.U_BOOL_NOT)
+				return ((UnaryOp) operand).arg();
+			return ast;
+		}
+		return ast;
+	}
+
+	private static Expr fold(BinaryOp ast, SideEffectSummaries effects) {
+		Expr left = ast.left(), right = ast.right();
+		if (left instanceof IntConst && right instanceof IntConst)
+			return foldInts(ast, ((IntConst) left).value, ((IntConst) right).value);
+		if (left instanceof BooleanConst && right instanceof BooleanConst)
+			return foldBooleans(ast, ((BooleanConst) left).value, ((BooleanConst) right).value);
+
+		switch (ast.operator) {
+		case B_PLUS:
+			if (isInt(left, 0))
+				return right;
+			if (isInt(right, 0))
+				return left;
+			break;
+		case B_MINUS:
+			if (isInt(right, 0))
+				return left;
+			if (isInt(left, 0))
+				return negate(right, UOp.U_MINUS);
+			if (left instanceof Var && right instanceof Var && ((Var) left).sym == ((Var) right).sym)
+				return intConst(0);
+			break;
+		case B_TIMES:
+			if (isInt(left, 1))
+				return right;
+			if (isInt(right, 1))
+				return left;
+			if (isInt(left, 0) && effects.isRemovable(right) || isInt(right, 0) && effects.isRemovable(left))
+				return intConst(0);
+			break;
+		case B_DIV:
+			if (isInt(right, 1))
+				return left;
+			break;
+		case B_MOD:
+			if (isInt(right, 1) && effects.isRemovable(left))
+				return intConst(0);
+			break;
+		case B_AND:
+			// Both operands are always evaluated.
+			if (isBoolean(left, true))
+				return right;
+			if (isBoolean(right, true))
+				return left;
+			if (isBoolean(left, false) && effects.isRemovable(right))
+				return left;
+			if (isBoolean(right, false) && effects.isRemovable(left))
+				return right;
+			break;
+		case B_OR:
+			if (isBoolean(left, false))
+				return right;
+			if (isBoolean(right, false))
+				return left;
+			if (isBoolean(left, true) && effects.isRemovable(right))
+				return left;
+			if (isBoolean(right, true) && effects.isRemovable(left))
+				return right;
+			break;
+		case B_EQUAL:
+		case B_NOT_EQUAL:
+			boolean equal = ast.operator == BOp.B_EQUAL;
+			if (right instanceof BooleanConst)
+				return ((BooleanConst) right).value == equal ? left : negate(left, UOp.U_BOOL_NOT);
+			if (left instanceof BooleanConst)
+				return ((BooleanConst) left).value == equal ? right : negate(right, UOp.U_BOOL_NOT);
+			if (left instanceof NullConst && right instanceof NullConst)
+				return booleanConst(equal);
+			break;
+		default:
+			break;
+		}
+		return ast;
+	}
+
+	private static Expr foldInts(BinaryOp ast, int left, int right) {
+		switch (ast.operator) {
+		case B_PLUS:
+			return intConst(left + right);
+		case B_MINUS:
+			return intConst(left - right);
+		case B_TIMES:
+			return intConst(left * right);
+		case B_DIV:
+		case B_MOD:
+			if (right == 0 || left == Integer.MIN_VALUE && right == -1)
+				return ast;
+			return intConst(ast.operator == BOp.B_DIV ? left / right : left % right);
+		case B_EQUAL:
+			return booleanConst(left == right);
+		case B_NOT_EQUAL:
+			return booleanConst(left != right);
+		case B_LESS_THAN:
+			return booleanConst(left < right);
+		case B_LESS_OR_EQUAL:
+			return booleanConst(left <= right);
+		case B_GREATER_THAN:
+			return booleanConst(left > right);
+		case B_GREATER_OR_EQUAL:
+			return booleanConst(left >= right);
+		default:
+			return ast;
+		}
+	}
+
+	private static Expr foldBooleans(BinaryOp ast, boolean left, boolean right) {
+		switch (ast.operator) {
+		case B_AND:
+			return booleanConst(left && right);
+		case B_OR:
+			return booleanConst(left || right);
+		case B_EQUAL:
+			return booleanConst(left == right);
+		case B_NOT_EQUAL:
+			return booleanConst(left != right);
+		default:
+			return ast;
+		}
+	}
+
+	private static boolean isInt(Expr expr, int value) {
+		return expr instanceof IntConst && ((IntConst) expr).value == value;
+	}
+
+	private static boolean isBoolean(Expr expr, boolean value) {
+		return expr instanceof BooleanConst && ((BooleanConst) expr).value == value;
+	}
+
+	/** Returns <code>expr</code> with <code>operator</code> applied, folded. */
+	private static Expr negate(Expr expr, UOp operator) {
+		UnaryOp result = new UnaryOp(operator, expr);
+		result.type = expr.type;
+		return fold(result);
+	}
+
+	private static IntConst intConst(int value) {
+		IntConst result = new IntConst(value);
+		result.type = PrimitiveTypeSymbol.intType;
+		return result;
+	}
+
+	private static BooleanConst booleanConst(boolean value) {
+		BooleanConst result = new BooleanConst(value);
+		result.type = PrimitiveTypeSymbol.booleanType;
+		return result;
+	}
+}
@@ -0,0 +1,128 @@
+package cd.transform;
+
+import java.util.List;
+
+import cd.ir.Ast;
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.BooleanConst;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.IntConst;
+import cd.ir.Ast.MethodCall;
+import cd.ir.Ast.MethodCallExpr;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.Var;
+import cd.ir.BasicBlock;
+import cd.ir.Symbol.VariableSymbol;
+import cd.transform.analysis.AnalysisManager;
+import cd.transform.analysis.DefUseChains;
+import cd.transform.analysis.PreservedAnalyses;
+import cd.transform.analysis.ReachingDefsAnalysis.Def;
+import cd.transform.analysis.SideEffectSummaries;
+
+/**
+ * Propagates constants assigned to locals and parameters and removes
+ * assignments whose value is never used, based on the {@link DefUseChains}.
+ * <p>
+ * A use is replaced by a constant if the only definition reaching it assigns
+ * that constant and comes before it in the same block. The chains do not
+ * record whether the initial value of a variable reaches a use, but within a
+ * block every path to the use passes through the definition.
+ * <p>
+ * An assignment whose definition reaches no use is removed if the
+ * {@link SideEffectSummaries} show that evaluating its right-hand side has
+ * no effect, and reduced to the call if the right-hand side is a method
+ * call. The chains are updated as statements are removed, so definitions
+ * which were only used by removed assignments are removed as well.
+ */
+public class ConstantPropagator implements MethodPass {
+
+	@Override
+	public PreservedAnalyses run(MethodDecl method, AnalysisManager analyses) {
+		DefUseChains chains = analyses.get(method, DefUseChains.class);
+		SideEffectSummaries effects = analyses.getProgram(SideEffectSummaries.class);
+		Propagator propagator = new Propagator(chains);
+		for (BasicBlock block : method.cfg.allBlocks)
+			propagator.rewrite(block, null);
+
+		boolean changed = propagator.changed;
+		boolean removed = true;
+		while (removed) {
+			removed = false;
+			for (BasicBlock block : method.cfg.allBlocks) {
+				for (int i = 0; i < block.stmts.size(); i++) {
+					Stmt stmt = block.stmts.get(i);
+					if (!(stmt instanceof Assign) || !chains.isDefinition((Assign) stmt)
+							|| chains.useCount((Assign) stmt) > 0)
+						continue;
+					Expr right = ((Assign) stmt).right();
+					if (effects.isRemovable(right)) {
+						block.stmts.remove(i--);
+						chains.replace(stmt, stmt, null);
+						removed = true;
+					} else if (right instanceof MethodCallExpr) {
+						MethodCall call = new MethodCall((MethodCallExpr) right);
+						block.stmts.set(i, call);
+						chains.replace(stmt, stmt, call);
+						removed = true;
+					}
+				}
+			}
+			changed |= removed;
+		}
+		return changed ? PreservedAnalyses.none() : PreservedAnalyses.all();
+	}
+
+	/** Replaces uses by the constants assigned earlier in the same block. */
+	private static class Propagator extends DefUseChains.Rewriter<Void> {
+
+		boolean changed;
+
+		Propagator(DefUseChains chains) {
+			super(chains);
+		}
+
+		@Override
+		public Ast assign(Assign ast, Void arg) {
+			if (!(ast.left() instanceof Var))
+				return visitChildren(ast, arg);
+			// The target of the assignment is not a use.
+			Expr right = ast.right();
+			Ast replace = visit(right, arg);
+			if (replace != right) {
+				ast.setRight((Expr) replace);
+				nodeReplaced(right, replace);
+			}
+			return ast;
+		}
+
+		@Override
+		public Ast var(Var ast, Void arg) {
+			if (ast.sym == null || ast.sym.kind == VariableSymbol.Kind.FIELD)
+				return ast;
+			List<Def> defs = chains.defsOf(ast);
+			if (defs.size() != 1)
+				return ast;
+			Assign def = defs.get(0).assign;
+			Expr value = def.right();
+			if (!(value instanceof IntConst || value instanceof BooleanConst) || !precedes(def))
+				return ast;
+			changed = true;
+			return value.deepCopy();
+		}
+
+		/**
+		 * Returns whether <code>def</code> comes before the statement or
+		 * condition being rewritten, within the same block.
+		 */
+		private boolean precedes(Assign def) {
+			for (Stmt stmt : currentBlock().stmts) {
+				if (stmt == currentStmt())
+					return false;
+				if (stmt == def)
+					return true;
+			}
+			return false;
+		}
+	}
+}
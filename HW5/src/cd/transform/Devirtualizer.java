@@ -0,0 +1,42 @@
+package cd.transform;
+
+import java.util.Set;
+
+import cd.ir.Ast.MethodCallExpr;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.Stmt;
+import cd.ir.AstVisitor;
+import cd.ir.BasicBlock;
+import cd.ir.Symbol.MethodSymbol;
+import cd.transform.analysis.AnalysisManager;
+import cd.transform.analysis.CallGraph;
+import cd.transform.analysis.PreservedAnalyses;
+
+/**
+ * Marks the calls which the {@link CallGraph} resolves to a single method
+ * with their {@link MethodCallExpr#directTarget}, so that code generation
+ * calls that method directly instead of loading it from the vtable. The
+ * receiver is still checked for <code>null</code>.
+ */
+public class Devirtualizer implements MethodPass {
+
+	@Override
+	public PreservedAnalyses run(MethodDecl method, AnalysisManager analyses) {
+		final CallGraph callGraph = analyses.getProgram(CallGraph.class);
+		AstVisitor<Void, Void> visitor = new AstVisitor<Void, Void>() {
+			@Override
+			public Void methodCall(MethodCallExpr ast, Void arg) {
+				Set<MethodSymbol> targets = callGraph.targetsOf(ast);
+				ast.directTarget = targets.size() == 1 ? targets.iterator().next() : null;
+				return visitChildren(ast, arg);
+			}
+		};
+		for (BasicBlock block : method.cfg.allBlocks) {
+			for (Stmt stmt : block.stmts)
+				visitor.visit(stmt, null);
+			if (block.condition != null)
+				visitor.visit(block.condition, null);
+		}
+		return PreservedAnalyses.all();
+	}
+}
@@ -0,0 +1,337 @@
+package cd.transform;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cd.ir.Ast;
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.BooleanConst;
+import cd.ir.Ast.ClassDecl;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.IntConst;
+import cd.ir.Ast.MethodCall;
+import cd.ir.Ast.MethodCallExpr;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NullCheck;
+import cd.ir.Ast.NullConst;
+import cd.ir.Ast.ReturnStmt;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.ThisRef;
+import cd.ir.Ast.Var;
+import cd.ir.AstRewriteVisitor;
+import cd.ir.AstVisitor;
+import cd.ir.BasicBlock;
+import cd.ir.ControlFlowGraph;
+import cd.ir.Symbol.MethodSymbol;
+import cd.ir.Symbol.PrimitiveTypeSymbol;
+import cd.ir.Symbol.TypeSymbol;
+import cd.ir.Symbol.VariableSymbol;
+import cd.transform.analysis.AnalysisManager;
+import cd.transform.analysis.CallGraph;
+import cd.transform.analysis.PreservedAnalyses;
+
+/**
+ * Replaces calls to small methods by a copy of the method's control flow
+ * graph.
+ * <p>
+ * A call is inlined if the {@link CallGraph} has a single method it may
+ * dispatch to, that method is not (mutually) recursive and has at most
+ * {@link #CALLEE_LIMIT} AST nodes, and the caller has not yet grown beyond
+ * {@link #CALLER_LIMIT} nodes. Only calls forming a statement of their own or
+ * the right-hand side of an assignment are considered. Methods are processed
+ * callees first, so a callee is inlined with its own calls already inlined.
+ * <p>
+ * The arguments are evaluated into fresh locals of the caller in the order
+ * the call would evaluate them, and the receiver is checked for
+ * <code>null</code> with a {@link NullCheck} just like the call would. The
+ * parameters and locals of the callee become fresh locals of the caller, and
+ * every <code>return</code> becomes an assignment of the result followed by
+ * a jump to the code after the call.
+ */
+public class Inliner implements ProgramPass {
+
+	/** Maximum size of an inlined method, in AST nodes. */
+	public static final int CALLEE_LIMIT = 40;
+
+	/** Size of a method, in AST nodes, above which nothing more is inlined into it. */
+	public static final int CALLER_LIMIT = 1000;
+
+	@Override
+	public PreservedAnalyses run(List<ClassDecl> astRoots, AnalysisManager analyses) {
+		CallGraph callGraph = analyses.getProgram(CallGraph.class);
+
+		Set<MethodDecl> recursive = new HashSet<MethodDecl>();
+		List<List<MethodDecl>> components = callGraph.bottomUpComponents();
+		for (List<MethodDecl> component : components)
+			if (callGraph.isRecursive(component))
+				recursive.addAll(component);
+
+		boolean changed = false;
+		for (List<MethodDecl> component : components) {
+			for (MethodDecl caller : component) {
+				for (Stmt site : callStatements(caller.cfg)) {
+					if (size(caller.cfg) > CALLER_LIMIT)
+						break;
+					MethodDecl callee = singleTarget(callGraph, callOf(site));
+					if (callee == null || callee == caller || recursive.contains(callee)
+							|| size(callee.cfg) > CALLEE_LIMIT)
+						continue;
+					changed |= new Splicer(caller, callee).inline(site);
+				}
+			}
+		}
+		return changed ? PreservedAnalyses.none() : PreservedAnalyses.all();
+	}
+
+	/**
+	 * Returns the statements of <code>cfg</code> that are a call or an
+	 * assignment of a call's result.
+	 */
+	private static List<Stmt> callStatements(ControlFlowGraph cfg) {
+		List<Stmt> result = new ArrayList<Stmt>();
+		for (BasicBlock block : cfg.allBlocks)
+			for (Stmt stmt : block.stmts)
+				if (callOf(stmt) != null)
+					result.add(stmt);
+		return result;
+	}
+
+	private static MethodCallExpr callOf(Stmt stmt) {
+		if (stmt instanceof MethodCall)
+			return ((MethodCall) stmt).getMethodCallExpr();
+		if (stmt instanceof Assign && ((Assign) stmt).right() instanceof MethodCallExpr)
+			return (MethodCallExpr) ((Assign) stmt).right();
+		return null;
+	}
+
+	private static MethodDecl singleTarget(CallGraph callGraph, MethodCallExpr call) {
+		Set<MethodSymbol> targets = callGraph.targetsOf(call);
+		if (targets.size() != 1)
+			return null;
+		MethodSymbol target = targets.iterator().next();
+		return target.ast.cfg != null ? target.ast : null;
+	}
+
+	/** Returns the number of AST nodes in the blocks of <code>cfg</code>. */
+	private static int size(ControlFlowGraph cfg) {
+		final int[] size = new int[1];
+		AstVisitor<Void, Void> counter = new AstVisitor<Void, Void>() {
+			@Override
+			public Void visit(Ast ast, Void arg) {
+				size[0]++;
+				return super.visit(ast, arg);
+			}
+		};
+		for (BasicBlock block : cfg.allBlocks) {
+			for (Stmt stmt : block.stmts)
+				counter.visit(stmt, null);
+			if (block.condition != null)
+				counter.visit(block.condition, null);
+		}
+		return size[0];
+	}
+
+	/** Returns the value a local of type <code>type</code> starts out with. */
+	static Expr zero(TypeSymbol type) {
+		Expr zero;
+		if (type == PrimitiveTypeSymbol.intType)
+			zero = new IntConst(0);
+		else if (type == PrimitiveTypeSymbol.booleanType)
+			zero = new BooleanConst(false);
+		else
+			zero = new NullConst();
+		zero.type = type;
+		return zero;
+	}
+
+	/** Inlines one call of <code>callee</code> into <code>caller</code>. */
+	private static class Splicer extends AstRewriteVisitor<Void> {
+
+		private final MethodDecl caller;
+		private final MethodDecl callee;
+		private final ControlFlowGraph cfg;
+
+		/** Callee parameters and locals to their caller locals. */
+		private final Map<VariableSymbol, VariableSymbol> renamed = new HashMap<VariableSymbol, VariableSymbol>();
+
+		/** What <code>this</code> refers to in the copied code. */
+		private Expr receiver;
+
+		Splicer(MethodDecl caller, MethodDecl callee) {
+			this.caller = caller;
+			this.callee = callee;
+			this.cfg = caller.cfg;
+		}
+
+		boolean inline(Stmt site) {
+			BasicBlock block = blockOf(site);
+			if (block == null)
+				return false;
+			int index = block.stmts.indexOf(site);
+			for (int i = 0; i < index; i++)
+				if (block.stmts.get(i) instanceof ReturnStmt)
+					return false;
+
+			MethodCallExpr call = callOf(site);
+			List<Stmt> prologue = new ArrayList<Stmt>();
+
+			// Evaluate the receiver and the arguments, in this order, then
+			// check the receiver as the call would.
+			// A local receiver can be used as it is, as no code between here and
+			// the end of the inlined body assigns to the caller's locals.
+			if (call.receiver() instanceof ThisRef || call.receiver() instanceof Var) {
+				receiver = call.receiver();
+			} else {
+				VariableSymbol recv = freshLocal("this", call.receiver().type);
+				prologue.add(new Assign(Var.withSym(recv), call.receiver()));
+				receiver = Var.withSym(recv);
+			}
+			List<Expr> arguments = call.argumentsWithoutReceiver();
+			for (int i = 0; i < arguments.size(); i++) {
+				VariableSymbol param = callee.sym.parameters.get(i);
+				VariableSymbol local = freshLocal(param.name, param.type);
+				renamed.put(param, local);
+				prologue.add(new Assign(Var.withSym(local), arguments.get(i)));
+			}
+			if (!(receiver instanceof ThisRef))
+				prologue.add(new NullCheck(Var.withSym(((Var) receiver).sym)));
+
+			// The locals of the callee start out as zero on every entry.
+			for (VariableSymbol local : callee.sym.locals.values()) {
+				VariableSymbol copy = freshLocal(local.name, local.type);
+				renamed.put(local, copy);
+				prologue.add(new Assign(Var.withSym(copy), zero(copy.type)));
+			}
+
+			// Where the result goes, and the statement completing the
+			// original one afterwards.
+			Var result = null;
+			Stmt epilogue = null;
+			if (site instanceof Assign) {
+				Expr target = ((Assign) site).left();
+				if (target instanceof Var) {
+					result = (Var) target;
+				} else {
+					VariableSymbol tmp = freshLocal("result", call.type);
+					result = Var.withSym(tmp);
+					epilogue = new Assign(target, Var.withSym(tmp));
+				}
+			}
+
+			BasicBlock rest = split(block, index);
+			if (epilogue != null)
+				rest.stmts.add(0, epilogue);
+			block.stmts.addAll(prologue);
+
+			Map<BasicBlock, BasicBlock> copies = new HashMap<BasicBlock, BasicBlock>();
+			for (BasicBlock orig : callee.cfg.allBlocks)
+				copies.put(orig, cfg.newBlock());
+			for (BasicBlock orig : callee.cfg.allBlocks) {
+				BasicBlock copy = copies.get(orig);
+				boolean returned = false;
+				for (Stmt stmt : orig.stmts) {
+					if (stmt instanceof ReturnStmt) {
+						Expr value = ((ReturnStmt) stmt).arg();
+						if (value != null)
+							returnValue(copy, result, (Expr) copy(value));
+						returned = true;
+						break;
+					}
+					copy.stmts.add((Stmt) copy(stmt));
+				}
+
+				if (returned || orig == callee.cfg.end) {
+					cfg.connect(copy, rest);
+				} else {
+					if (orig.condition != null)
+						copy.condition = (Expr) copy(orig.condition);
+					for (BasicBlock succ : orig.successors)
+						cfg.connect(copy, copies.get(succ));
+				}
+			}
+			cfg.connect(block, copies.get(callee.cfg.start));
+			cfg.structureChanged();
+			return true;
+		}
+
+		/**
+		 * Appends the statements storing the returned <code>value</code> in
+		 * <code>result</code>, or evaluating it for its side effects if the
+		 * result is unused.
+		 */
+		private void returnValue(BasicBlock block, Var result, Expr value) {
+			if (result != null) {
+				block.stmts.add(new Assign(Var.withSym(result.sym), value));
+			} else if (value instanceof MethodCallExpr) {
+				block.stmts.add(new MethodCall((MethodCallExpr) value));
+			} else if (!(value instanceof Var || value instanceof ThisRef || value instanceof IntConst
+					|| value instanceof BooleanConst || value instanceof NullConst)) {
+				// May fail at runtime, e.g. on a null dereference.
+				VariableSymbol tmp = freshLocal("result", value.type);
+				block.stmts.add(new Assign(Var.withSym(tmp), value));
+			}
+		}
+
+		/**
+		 * Moves everything after statement <code>index</code> of
+		 * <code>block</code> into a new block, together with the condition and
+		 * the successors of <code>block</code>, and deletes the statement.
+		 */
+		private BasicBlock split(BasicBlock block, int index) {
+			BasicBlock rest = cfg.newBlock();
+			List<Stmt> tail = block.stmts.subList(index + 1, block.stmts.size());
+			rest.stmts.addAll(tail);
+			tail.clear();
+			block.stmts.remove(index);
+
+			rest.condition = block.condition;
+			block.condition = null;
+			for (BasicBlock succ : block.successors) {
+				rest.successors.add(succ);
+				succ.predecessors.set(succ.predecessors.indexOf(block), rest);
+			}
+			block.successors.clear();
+			if (cfg.end == block)
+				cfg.end = rest;
+			return rest;
+		}
+
+		private BasicBlock blockOf(Stmt stmt) {
+			for (BasicBlock block : cfg.allBlocks)
+				for (Stmt s : block.stmts)
+					if (s == stmt)
+						return block;
+			return null;
+		}
+
+		private VariableSymbol freshLocal(String name, TypeSymbol type) {
+			String base = callee.name + "$" + name;
+			String unique = base;
+			for (int i = 1; caller.sym.locals.containsKey(unique); i++)
+				unique = base + "$" + i;
+			VariableSymbol sym = new VariableSymbol(unique, type, VariableSymbol.Kind.LOCAL);
+			caller.sym.locals.put(unique, sym);
+			return sym;
+		}
+
+		/** Copies <code>ast</code> from the callee into the caller. */
+		private Ast copy(Ast ast) {
+			return visit(ast.deepCopy(), null);
+		}
+
+		@Override
+		public Ast var(Var ast, Void arg) {
+			VariableSymbol sym = renamed.get(ast.sym);
+			return sym != null ? Var.withSym(sym) : ast;
+		}
+
+		@Override
+		public Ast thisRef(ThisRef ast, Void arg) {
+			return receiver.deepCopy();
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package cd.transform;
+
+import cd.ir.Ast.MethodDecl;
+import cd.transform.analysis.AnalysisManager;
+import cd.transform.analysis.PreservedAnalyses;
+
+/**
+ * A transformation applied to the control flow graph of one method at a
+ * time.
+ *
+ * @see PassManager
+ */
+public interface MethodPass {
+
+	/**
+	 * Transforms <code>method</code> and returns the analyses whose results
+	 * for it are still valid. Analysis results may be obtained from
+	 * <code>analyses</code>.
+	 * <p>
+	 * Whole-program results are kept unless the returned analyses
+	 * {@link PreservedAnalyses#abandoning abandon} them. A pass adding calls
+	 * must abandon the {@link cd.transform.analysis.CallGraph CallGraph}, and
+	 * a pass changing what a method does for its callers must abandon the
+	 * summaries.
+	 */
+	PreservedAnalyses run(MethodDecl method, AnalysisManager analyses);
+}
@@ -1,7 +1,7 @@
 package cd.transform;
 
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -17,6 +17,7 @@ import cd.ir.Ast.Index;
 import cd.ir.Ast.MethodCallExpr;
 import cd.ir.Ast.NewArray;
 import cd.ir.Ast.NewObject;
+import cd.ir.Ast.NullCheck;
 import cd.ir.Ast.NullConst;
 import cd.ir.Ast.Stmt;
 import cd.ir.Ast.ThisRef;
@@ -26,8 +27,6 @@ import cd.transform.analysis.NonNullAnalysis;
 
 public class NNLocalAnalysisVisitor extends AstVisitor<VariableSymbol, Ast> {
 
-	public Map<Stmt, Set<VariableSymbol>> stmtStates = new HashMap<Stmt, Set<VariableSymbol>>();
-	public Map<BasicBlock, Set<VariableSymbol>> stmtBeforeConditionStates = new HashMap<BasicBlock, Set<VariableSymbol>>();
 	public Set<VariableSymbol> state;
 	public Set<VariableSymbol> out;
 	public NonNullAnalysis analysis;
@@ -37,25 +36,32 @@ public class NNLocalAnalysisVisitor extends AstVisitor<VariableSymbol, Ast> {
 	 * Loop over the statements and do local analysis.
 	 * 
 	 * @param block
+	 * @param state
+	 *            in-state of the block, updated in place
+	 * @param out
 	 * @param analysis
+	 * @param stmtStates
+	 *            if non-<code>null</code>, receives a copy of the state before
+	 *            each statement
 	 */
 	public NNLocalAnalysisVisitor(BasicBlock block, Set<VariableSymbol> state, Set<VariableSymbol> out,
-			NonNullAnalysis analysis) {
+			NonNullAnalysis analysis, Map<Stmt, Set<VariableSymbol>> stmtStates) {
 
 		this.state = state;
 		this.analysis = analysis;
 		this.out = out;
 
 		// Statements to resolve in this block, e.g. x = y
-		unresolved = new HashMap<Stmt, Map<VariableSymbol, VariableSymbol>>(analysis.toResolve.get(block));
+		unresolved = new LinkedHashMap<Stmt, Map<VariableSymbol, VariableSymbol>>(analysis.toResolve.get(block));
 		if (unresolved == null) {
-			unresolved = new HashMap<Stmt, Map<VariableSymbol, VariableSymbol>>();
+			unresolved = new LinkedHashMap<Stmt, Map<VariableSymbol, VariableSymbol>>();
 		}
 
 		for (Stmt stmt : block.stmts) {
 
 			// Add state before of current statement.
-			stmtStates.put(stmt, new HashSet<VariableSymbol>(state));
+			if (stmtStates != null)
+				stmtStates.put(stmt, new HashSet<VariableSymbol>(state));
 
 			// Visit statement.
 			stmt.accept(this, stmt);
@@ -84,8 +90,10 @@ public class NNLocalAnalysisVisitor extends AstVisitor<VariableSymbol, Ast> {
 
 		if (leftSym != null) {
 
-			// GEN: Get new and this statements.
-			if (right instanceof ThisRef || right instanceof NewObject || right instanceof NewArray) {
+			// GEN: Get new and this statements, and calls known to return
+			// non-null.
+			if (right instanceof ThisRef || right instanceof NewObject || right instanceof NewArray
+					|| (right instanceof MethodCallExpr && analysis.returnsNonNull((MethodCallExpr) right))) {
 
 				state.add(leftSym);
 			}
@@ -104,7 +112,8 @@ public class NNLocalAnalysisVisitor extends AstVisitor<VariableSymbol, Ast> {
 
 			// KILL
 			if (right instanceof NullConst || right instanceof Field || right instanceof Index
-					|| right instanceof BuiltInRead || right instanceof MethodCallExpr) {
+					|| right instanceof BuiltInRead
+					|| (right instanceof MethodCallExpr && !analysis.returnsNonNull((MethodCallExpr) right))) {
 				state.remove(leftSym);
 				out.remove(leftSym);
 			}
@@ -113,6 +122,18 @@ public class NNLocalAnalysisVisitor extends AstVisitor<VariableSymbol, Ast> {
 		return null;
 	}
 
+	/**
+	 * The argument of an explicit null check is non-null afterwards.
+	 */
+	public VariableSymbol nullCheck(NullCheck ast, Ast parent) {
+
+		VariableSymbol var = ast.arg().accept(this, parent);
+		if (var != null) {
+			state.add(var);
+		}
+		return null;
+	}
+
 	/*************
 	 * Expressions
 	 *************/
@@ -187,6 +208,9 @@ public class NNLocalAnalysisVisitor extends AstVisitor<VariableSymbol, Ast> {
 			state.add(receiver);
 		}
 
+		// Arguments the callee dereferences anyway.
+		state.addAll(analysis.dereferencedArguments(ast));
+
 		return null;
 	}
 
@@ -1,6 +1,7 @@
 package cd.transform;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -16,6 +17,7 @@ import cd.ir.Ast.Index;
 import cd.ir.Ast.MethodCallExpr;
 import cd.ir.Ast.NewArray;
 import cd.ir.Ast.NewObject;
+import cd.ir.Ast.NullCheck;
 import cd.ir.Ast.NullConst;
 import cd.ir.Ast.Stmt;
 import cd.ir.Ast.ThisRef;
@@ -28,7 +30,7 @@ public class NonNullAnalysisVisitor extends AstVisitor<VariableSymbol, Ast> {
 	public Map<String, VariableSymbol> gen = new HashMap<String, VariableSymbol>();
 	public Map<String, VariableSymbol> kill = new HashMap<String, VariableSymbol>();
 	public Map<VariableSymbol, VariableSymbol> toResolve = new HashMap<VariableSymbol, VariableSymbol>();
-	public Map<Stmt, Map<VariableSymbol, VariableSymbol>> unresolvedStmts = new HashMap<Stmt, Map<VariableSymbol, VariableSymbol>>();
+	public Map<Stmt, Map<VariableSymbol, VariableSymbol>> unresolvedStmts = new LinkedHashMap<Stmt, Map<VariableSymbol, VariableSymbol>>();
 	public Map<BasicBlock, Map<Stmt, Map<VariableSymbol, VariableSymbol>>> unresolvedStmtsInBlock = new HashMap<BasicBlock, Map<Stmt, Map<VariableSymbol, VariableSymbol>>>();
 	private NonNullAnalysis analysis;
 
@@ -42,7 +44,7 @@ public class NonNullAnalysisVisitor extends AstVisitor<VariableSymbol, Ast> {
 		this.analysis = analysis;
 		unresolvedStmts = analysis.toResolve.get(block);
 		if (unresolvedStmts == null) {
-			unresolvedStmts = new HashMap<Stmt, Map<VariableSymbol, VariableSymbol>>();
+			unresolvedStmts = new LinkedHashMap<Stmt, Map<VariableSymbol, VariableSymbol>>();
 		}
 
 		// Loop over statements.
@@ -71,8 +73,10 @@ public class NonNullAnalysisVisitor extends AstVisitor<VariableSymbol, Ast> {
 
 		if (leftSym != null) {
 
-			// GEN: Get new and this statements.
-			if (right instanceof ThisRef || right instanceof NewObject || right instanceof NewArray) {
+			// GEN: Get new and this statements, and calls known to return
+			// non-null.
+			if (right instanceof ThisRef || right instanceof NewObject || right instanceof NewArray
+					|| (right instanceof MethodCallExpr && analysis.returnsNonNull((MethodCallExpr) right))) {
 				gen.put(leftSym.name, leftSym);
 			}
 
@@ -87,7 +91,8 @@ public class NonNullAnalysisVisitor extends AstVisitor<VariableSymbol, Ast> {
 
 			// KILL
 			if (right instanceof NullConst || right instanceof Field || right instanceof Index
-					|| right instanceof BuiltInRead || right instanceof MethodCallExpr) {
+					|| right instanceof BuiltInRead
+					|| (right instanceof MethodCallExpr && !analysis.returnsNonNull((MethodCallExpr) right))) {
 				kill.put(leftSym.name, leftSym);
 				gen.remove(leftSym.name, leftSym);
 			}
@@ -96,6 +101,18 @@ public class NonNullAnalysisVisitor extends AstVisitor<VariableSymbol, Ast> {
 		return null;
 	}
 
+	/**
+	 * The argument of an explicit null check is non-null afterwards.
+	 */
+	public VariableSymbol nullCheck(NullCheck ast, Ast parent) {
+
+		VariableSymbol var = ast.arg().accept(this, parent);
+		if (var != null) {
+			gen.put(var.name, var);
+		}
+		return null;
+	}
+
 	/*************
 	 * Expressions
 	 *************/
@@ -175,6 +192,11 @@ public class NonNullAnalysisVisitor extends AstVisitor<VariableSymbol, Ast> {
 			gen.put(receiver.name, receiver);
 		}
 
+		// Arguments the callee dereferences anyway.
+		for (VariableSymbol arg : analysis.dereferencedArguments(ast)) {
+			gen.put(arg.name, arg);
+		}
+
 		return null;
 	}
 
@@ -0,0 +1,97 @@
+package cd.transform;
+
+import java.util.Iterator;
+import java.util.Set;
+
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.Field;
+import cd.ir.Ast.Index;
+import cd.ir.Ast.MethodCallExpr;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NewArray;
+import cd.ir.Ast.NewObject;
+import cd.ir.Ast.NullCheck;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.ThisRef;
+import cd.ir.Ast.Var;
+import cd.ir.AstVisitor;
+import cd.ir.BasicBlock;
+import cd.ir.Symbol.VariableSymbol;
+import cd.transform.analysis.AnalysisManager;
+import cd.transform.analysis.NonNullAnalysis;
+import cd.transform.analysis.PreservedAnalyses;
+
+/**
+ * Removes the null checks which the {@link NonNullAnalysis} proves to always
+ * pass: {@link NullCheck} statements are deleted, and the objects and arrays
+ * of field accesses, array accesses and method calls are marked as
+ * {@link Expr#nonNull}, so that code generation does not check them. Besides
+ * locals and parameters the analysis knows to be non-<code>null</code>, this
+ * covers <code>this</code> and newly created objects and arrays.
+ */
+public class NullCheckEliminator implements MethodPass {
+
+	@Override
+	public PreservedAnalyses run(MethodDecl method, AnalysisManager analyses) {
+		NonNullAnalysis nonNull = analyses.get(method, NonNullAnalysis.class);
+		boolean removed = false;
+		for (BasicBlock block : method.cfg.allBlocks) {
+			for (Stmt stmt : block.stmts)
+				new Marker(nonNull.nonNullBefore(stmt)).visit(stmt, null);
+			if (block.condition != null)
+				new Marker(nonNull.nonNullBeforeCondition(block)).visit(block.condition, null);
+		}
+		for (BasicBlock block : method.cfg.allBlocks) {
+			for (Iterator<Stmt> it = block.stmts.iterator(); it.hasNext();) {
+				Stmt stmt = it.next();
+				if (stmt instanceof NullCheck && ((NullCheck) stmt).arg().nonNull) {
+					it.remove();
+					removed = true;
+				}
+			}
+		}
+		// Marking the expressions does not change what the method computes.
+		return removed ? PreservedAnalyses.none() : PreservedAnalyses.all();
+	}
+
+	/** Marks the checked expressions of one statement or condition. */
+	private static class Marker extends AstVisitor<Void, Void> {
+
+		private final Set<VariableSymbol> nonNull;
+
+		Marker(Set<VariableSymbol> nonNull) {
+			this.nonNull = nonNull;
+		}
+
+		private void mark(Expr ast) {
+			if (ast instanceof Var)
+				ast.nonNull = nonNull != null && nonNull.contains(((Var) ast).sym);
+			else
+				ast.nonNull = ast instanceof ThisRef || ast instanceof NewObject || ast instanceof NewArray;
+		}
+
+		@Override
+		public Void nullCheck(NullCheck ast, Void arg) {
+			mark(ast.arg());
+			return visitChildren(ast, arg);
+		}
+
+		@Override
+		public Void field(Field ast, Void arg) {
+			mark(ast.arg());
+			return visitChildren(ast, arg);
+		}
+
+		@Override
+		public Void index(Index ast, Void arg) {
+			mark(ast.left());
+			return visitChildren(ast, arg);
+		}
+
+		@Override
+		public Void methodCall(MethodCallExpr ast, Void arg) {
+			mark(ast.receiver());
+			return visitChildren(ast, arg);
+		}
+	}
+}
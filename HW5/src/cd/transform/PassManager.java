@@ -0,0 +1,220 @@
+package cd.transform;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cd.ir.Ast;
+import cd.ir.Ast.ClassDecl;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.AstVisitor;
+import cd.ir.BasicBlock;
+import cd.transform.analysis.AnalysisManager;
+import cd.transform.analysis.PreservedAnalyses;
+
+/**
+ * Runs the transformation passes on the control flow graphs of a program.
+ * <p>
+ * Every pass is registered under a name together with the lowest
+ * optimization level (<code>-O0</code>, <code>-O1</code>, ...) it is part
+ * of. The pipeline for a level consists of all passes registered at or below
+ * it, in registration order. Individual passes can be added to or removed
+ * from the pipeline by name.
+ * <p>
+ * For every pass that runs, the time it took and the change in the size of
+ * the IR (basic blocks and AST nodes in the control flow graphs) are
+ * recorded and can be printed with {@link #report(Writer)}.
+ */
+public class PassManager {
+
+	public static final int MAX_LEVEL = 2;
+
+	private static class Entry {
+		final String name;
+		final int level;
+		final MethodPass methodPass;
+		final ProgramPass programPass;
+
+		Entry(String name, int level, MethodPass methodPass, ProgramPass programPass) {
+			this.name = name;
+			this.level = level;
+			this.methodPass = methodPass;
+			this.programPass = programPass;
+		}
+	}
+
+	private static class Stats {
+		final String name;
+		final long nanos;
+		final int blocksBefore, blocksAfter;
+		final int nodesBefore, nodesAfter;
+
+		Stats(String name, long nanos, int[] before, int[] after) {
+			this.name = name;
+			this.nanos = nanos;
+			this.blocksBefore = before[0];
+			this.nodesBefore = before[1];
+			this.blocksAfter = after[0];
+			this.nodesAfter = after[1];
+		}
+	}
+
+	private final Map<String, Entry> passes = new LinkedHashMap<String, Entry>();
+	private final Set<String> enabled = new HashSet<String>();
+	private final Set<String> disabled = new HashSet<String>();
+	private final List<Stats> stats = new ArrayList<Stats>();
+	private int level;
+
+	/**
+	 * Creates a pass manager at level <code>-O0</code> with all passes of
+	 * the compiler registered.
+	 */
+	public PassManager() {
+		registerProgramPass("inline", 2, new Inliner());
+		registerMethodPass("scalar-replace", 2, new ScalarReplacement());
+		registerMethodPass("tail-recursion", 1, new TailRecursionEliminator());
+		registerMethodPass("devirtualize", 1, new Devirtualizer());
+		registerMethodPass("propagate-constants", 1, new ConstantPropagator());
+		registerMethodPass("fold-constants", 1, new ConstantFolder());
+		registerMethodPass("simplify-cfg", 1, new CfgSimplifier());
+		registerMethodPass("eliminate-null-checks", 1, new NullCheckEliminator());
+	}
+
+	public void registerMethodPass(String name, int level, MethodPass pass) {
+		add(new Entry(name, level, pass, null));
+	}
+
+	public void registerProgramPass(String name, int level, ProgramPass pass) {
+		add(new Entry(name, level, null, pass));
+	}
+
+	private void add(Entry entry) {
+		if (passes.containsKey(entry.name))
+			throw new IllegalArgumentException("pass registered twice: " + entry.name);
+		passes.put(entry.name, entry);
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public void setLevel(int level) {
+		if (level < 0 || level > MAX_LEVEL)
+			throw new IllegalArgumentException("invalid optimization level: " + level);
+		this.level = level;
+	}
+
+	/** Runs pass <code>name</code> regardless of the optimization level. */
+	public void enable(String name) {
+		checkName(name);
+		enabled.add(name);
+		disabled.remove(name);
+	}
+
+	/** Never runs pass <code>name</code>. */
+	public void disable(String name) {
+		checkName(name);
+		disabled.add(name);
+		enabled.remove(name);
+	}
+
+	private void checkName(String name) {
+		if (!passes.containsKey(name))
+			throw new IllegalArgumentException("unknown pass: " + name + " (known passes: " + passes.keySet() + ")");
+	}
+
+	/** Returns the names of the passes that {@link #run} executes, in order. */
+	public List<String> pipeline() {
+		List<String> result = new ArrayList<String>();
+		for (Entry entry : passes.values())
+			if (isScheduled(entry))
+				result.add(entry.name);
+		return result;
+	}
+
+	private boolean isScheduled(Entry entry) {
+		if (disabled.contains(entry.name))
+			return false;
+		return entry.level <= level || enabled.contains(entry.name);
+	}
+
+	/**
+	 * Runs the pipeline on the program <code>astRoots</code>. After every
+	 * pass, the analysis results it did not preserve are invalidated. Method
+	 * passes only invalidate the whole-program results they abandon.
+	 */
+	public void run(List<ClassDecl> astRoots, AnalysisManager analyses) {
+		for (Entry entry : passes.values()) {
+			if (!isScheduled(entry))
+				continue;
+
+			int[] before = irSize(astRoots);
+			long start = System.nanoTime();
+			if (entry.programPass != null) {
+				PreservedAnalyses preserved = entry.programPass.run(astRoots, analyses);
+				if (!preserved.preservesAll()) {
+					for (ClassDecl cdecl : astRoots)
+						for (MethodDecl mdecl : cdecl.methods())
+							analyses.invalidate(mdecl, preserved);
+					analyses.invalidateProgram(preserved);
+				}
+			} else {
+				for (ClassDecl cdecl : astRoots)
+					for (MethodDecl mdecl : cdecl.methods())
+						analyses.invalidate(mdecl, entry.methodPass.run(mdecl, analyses));
+			}
+			long nanos = System.nanoTime() - start;
+			stats.add(new Stats(entry.name, nanos, before, irSize(astRoots)));
+		}
+	}
+
+	/**
+	 * Writes the time and IR size change of every pass run so far to
+	 * <code>out</code>.
+	 */
+	public void report(Writer out) throws IOException {
+		out.write(String.format("%-24s %10s %14s %14s%n", "pass", "time (ms)", "blocks", "nodes"));
+		long total = 0;
+		for (Stats s : stats) {
+			total += s.nanos;
+			out.write(String.format("%-24s %10.3f %7d %+6d %7d %+6d%n", s.name, s.nanos / 1e6,
+					s.blocksAfter, s.blocksAfter - s.blocksBefore, s.nodesAfter, s.nodesAfter - s.nodesBefore));
+		}
+		out.write(String.format("%-24s %10.3f%n", "total", total / 1e6));
+		out.flush();
+	}
+
+	/**
+	 * Returns the number of basic blocks and the number of AST nodes in the
+	 * control flow graphs of all methods.
+	 */
+	private static int[] irSize(List<ClassDecl> astRoots) {
+		final int[] size = new int[2];
+		AstVisitor<Void, Void> counter = new AstVisitor<Void, Void>() {
+			@Override
+			public Void visit(Ast ast, Void arg) {
+				size[1]++;
+				return super.visit(ast, arg);
+			}
+		};
+		for (ClassDecl cdecl : astRoots) {
+			for (MethodDecl mdecl : cdecl.methods()) {
+				if (mdecl.cfg == null)
+					continue;
+				for (BasicBlock block : mdecl.cfg.allBlocks) {
+					size[0]++;
+					for (Ast stmt : block.stmts)
+						counter.visit(stmt, null);
+					if (block.condition != null)
+						counter.visit(block.condition, null);
+				}
+			}
+		}
+		return size;
+	}
+}
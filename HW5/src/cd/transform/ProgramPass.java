@@ -0,0 +1,23 @@
+package cd.transform;
+
+import java.util.List;
+
+import cd.ir.Ast.ClassDecl;
+import cd.transform.analysis.AnalysisManager;
+import cd.transform.analysis.PreservedAnalyses;
+
+/**
+ * A transformation applied to the whole program at once, e.g. one that
+ * works across method boundaries.
+ *
+ * @see PassManager
+ */
+public interface ProgramPass {
+
+	/**
+	 * Transforms the program and returns the analyses whose results are still
+	 * valid for all methods. Analysis results may be obtained from
+	 * <code>analyses</code>.
+	 */
+	PreservedAnalyses run(List<ClassDecl> astRoots, AnalysisManager analyses);
+}
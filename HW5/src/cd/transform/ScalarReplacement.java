@@ -0,0 +1,274 @@
+package cd.transform;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cd.ir.Ast;
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.Field;
+import cd.ir.Ast.Index;
+import cd.ir.Ast.IntConst;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NewArray;
+import cd.ir.Ast.NewObject;
+import cd.ir.Ast.NullCheck;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.Var;
+import cd.ir.AstRewriteVisitor;
+import cd.ir.AstVisitor;
+import cd.ir.BasicBlock;
+import cd.ir.Symbol.ArrayTypeSymbol;
+import cd.ir.Symbol.TypeSymbol;
+import cd.ir.Symbol.VariableSymbol;
+import cd.transform.analysis.AnalysisManager;
+import cd.transform.analysis.NonNullAnalysis;
+import cd.transform.analysis.PreservedAnalyses;
+
+/**
+ * Replaces objects which do not escape the method that creates them by one
+ * local per field.
+ * <p>
+ * An object held in a local does not escape if the local is only ever
+ * assigned newly created objects, and is only used to access their fields.
+ * The same goes for arrays of a constant size which are only indexed with
+ * constants within their bounds. The accesses must also never fail: the
+ * {@link NonNullAnalysis} has to show that the local is non-<code>null</code>
+ * wherever it is used.
+ * <p>
+ * Every creation of such an object is replaced by zeroing the locals
+ * standing in for its fields, and every field access by an access of the
+ * corresponding local. This saves the allocation as well as the null and
+ * bounds checks. As calls on an object let it escape, the pass works best
+ * after the {@link Inliner}.
+ */
+public class ScalarReplacement implements MethodPass {
+
+	/** What is known about a local holding objects that may not escape. */
+	private static class Candidate {
+		final VariableSymbol var;
+
+		/** Whether the local is assigned new objects or arrays at all. */
+		boolean created;
+
+		/** Whether it holds arrays, all of size {@link #length}. */
+		boolean array;
+		int length;
+
+		/** The locals standing in for the fields or array elements. */
+		final Map<Object, VariableSymbol> replacements = new LinkedHashMap<Object, VariableSymbol>();
+
+		/** Statements and block conditions using the local. */
+		final List<Stmt> stmtUses = new ArrayList<Stmt>();
+		final List<BasicBlock> conditionUses = new ArrayList<BasicBlock>();
+
+		Candidate(VariableSymbol var) {
+			this.var = var;
+		}
+	}
+
+	@Override
+	public PreservedAnalyses run(MethodDecl method, AnalysisManager analyses) {
+		final Map<VariableSymbol, Candidate> candidates = new HashMap<VariableSymbol, Candidate>();
+		for (VariableSymbol local : method.sym.locals.values())
+			if (local.type.isReferenceType())
+				candidates.put(local, new Candidate(local));
+
+		// Drop every local which is used in any way but assigning new objects
+		// and accessing their fields.
+		class Scanner extends AstVisitor<Void, Void> {
+			Stmt stmt;
+			BasicBlock condition;
+
+			@Override
+			public Void assign(Assign ast, Void arg) {
+				if (ast.left() instanceof Var) {
+					Candidate c = candidates.get(((Var) ast.left()).sym);
+					if (c != null && !creation(c, ast.right()))
+						candidates.remove(c.var);
+					return visit(ast.right(), arg);
+				}
+				return visitChildren(ast, arg);
+			}
+
+			private boolean creation(Candidate c, Expr expr) {
+				boolean array;
+				int length = 0;
+				if (expr instanceof NewObject) {
+					array = false;
+				} else if (expr instanceof NewArray && ((NewArray) expr).arg() instanceof IntConst) {
+					array = true;
+					length = ((IntConst) ((NewArray) expr).arg()).value;
+					// Creating an array of negative size traps.
+					if (length < 0)
+						return false;
+				} else {
+					return false;
+				}
+				if (c.created && (c.array != array || c.length != length))
+					return false;
+				c.created = true;
+				c.array = array;
+				c.length = length;
+				return true;
+			}
+
+			@Override
+			public Void nullCheck(NullCheck ast, Void arg) {
+				Candidate c = candidateOf(ast.arg());
+				if (c == null)
+					return visitChildren(ast, arg);
+				use(c, null);
+				return null;
+			}
+
+			@Override
+			public Void field(Field ast, Void arg) {
+				Candidate c = candidateOf(ast.arg());
+				if (c == null)
+					return visitChildren(ast, arg);
+				use(c, ast.sym);
+				return null;
+			}
+
+			@Override
+			public Void index(Index ast, Void arg) {
+				Candidate c = candidateOf(ast.left());
+				if (c == null)
+					return visitChildren(ast, arg);
+				if (!(ast.right() instanceof IntConst)) {
+					candidates.remove(c.var);
+					return visit(ast.right(), arg);
+				}
+				int i = ((IntConst) ast.right()).value;
+				use(c, i);
+				return null;
+			}
+
+			@Override
+			public Void var(Var ast, Void arg) {
+				candidates.remove(ast.sym);
+				return null;
+			}
+
+			private Candidate candidateOf(Expr expr) {
+				return expr instanceof Var ? candidates.get(((Var) expr).sym) : null;
+			}
+
+			private void use(Candidate c, Object key) {
+				if (key != null && !c.replacements.containsKey(key))
+					c.replacements.put(key, null);
+				if (stmt != null)
+					c.stmtUses.add(stmt);
+				else
+					c.conditionUses.add(condition);
+			}
+		}
+
+		Scanner scanner = new Scanner();
+		for (BasicBlock block : method.cfg.allBlocks) {
+			for (Stmt stmt : block.stmts) {
+				scanner.stmt = stmt;
+				scanner.visit(stmt, null);
+			}
+			if (block.condition != null) {
+				scanner.stmt = null;
+				scanner.condition = block;
+				scanner.visit(block.condition, null);
+			}
+		}
+
+		// Objects must never be accessed before being created, and array
+		// accesses must be in bounds.
+		if (!candidates.isEmpty()) {
+			NonNullAnalysis nonNull = analyses.get(method, NonNullAnalysis.class);
+			for (Candidate c : new ArrayList<Candidate>(candidates.values())) {
+				boolean safe = c.created;
+				for (Stmt stmt : c.stmtUses)
+					safe &= contains(nonNull.nonNullBefore(stmt), c.var);
+				for (BasicBlock block : c.conditionUses)
+					safe &= contains(nonNull.nonNullBeforeCondition(block), c.var);
+				for (Object key : c.replacements.keySet()) {
+					if (c.array)
+						safe &= key instanceof Integer && (Integer) key >= 0 && (Integer) key < c.length;
+					else
+						safe &= key instanceof VariableSymbol;
+				}
+				if (!safe)
+					candidates.remove(c.var);
+			}
+		}
+		if (candidates.isEmpty())
+			return PreservedAnalyses.all();
+
+		for (Candidate c : candidates.values()) {
+			for (Map.Entry<Object, VariableSymbol> entry : c.replacements.entrySet()) {
+				String suffix = !c.array ? ((VariableSymbol) entry.getKey()).name : entry.getKey().toString();
+				TypeSymbol type = !c.array ? ((VariableSymbol) entry.getKey()).type
+						: ((ArrayTypeSymbol) c.var.type).elementType;
+				entry.setValue(freshLocal(method, c.var.name + "$" + suffix, type));
+			}
+			method.sym.locals.remove(c.var.name);
+		}
+
+		AstRewriteVisitor<Void> rewriter = new AstRewriteVisitor<Void>() {
+			@Override
+			public Ast field(Field ast, Void arg) {
+				Candidate c = candidateOf(ast.arg());
+				return c != null ? Var.withSym(c.replacements.get(ast.sym)) : super.field(ast, arg);
+			}
+
+			@Override
+			public Ast index(Index ast, Void arg) {
+				Candidate c = candidateOf(ast.left());
+				if (c == null)
+					return super.index(ast, arg);
+				return Var.withSym(c.replacements.get(((IntConst) ast.right()).value));
+			}
+
+			private Candidate candidateOf(Expr expr) {
+				return expr instanceof Var ? candidates.get(((Var) expr).sym) : null;
+			}
+		};
+		for (BasicBlock block : method.cfg.allBlocks) {
+			List<Stmt> stmts = new ArrayList<Stmt>();
+			for (Stmt stmt : block.stmts) {
+				Candidate c = null;
+				if (stmt instanceof Assign && ((Assign) stmt).left() instanceof Var)
+					c = candidates.get(((Var) ((Assign) stmt).left()).sym);
+				if (stmt instanceof NullCheck && ((NullCheck) stmt).arg() instanceof Var
+						&& candidates.containsKey(((Var) ((NullCheck) stmt).arg()).sym))
+					continue;
+				if (c == null) {
+					stmts.add((Stmt) rewriter.visit(stmt, null));
+					continue;
+				}
+				// A new object starts out with all fields zero.
+				for (VariableSymbol field : c.replacements.values())
+					stmts.add(new Assign(Var.withSym(field), Inliner.zero(field.type)));
+			}
+			block.stmts.clear();
+			block.stmts.addAll(stmts);
+			if (block.condition != null)
+				block.condition = (Expr) rewriter.visit(block.condition, null);
+		}
+		return PreservedAnalyses.none();
+	}
+
+	private static boolean contains(Set<VariableSymbol> set, VariableSymbol var) {
+		return set != null && set.contains(var);
+	}
+
+	private static VariableSymbol freshLocal(MethodDecl method, String name, TypeSymbol type) {
+		String unique = name;
+		for (int i = 1; method.sym.locals.containsKey(unique); i++)
+			unique = name + "$" + i;
+		VariableSymbol sym = new VariableSymbol(unique, type, VariableSymbol.Kind.LOCAL);
+		method.sym.locals.put(unique, sym);
+		return sym;
+	}
+}
@@ -0,0 +1,192 @@
+package cd.transform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import cd.ir.Ast;
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.MethodCall;
+import cd.ir.Ast.MethodCallExpr;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NullCheck;
+import cd.ir.Ast.ReturnStmt;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.ThisRef;
+import cd.ir.Ast.Var;
+import cd.ir.AstRewriteVisitor;
+import cd.ir.BasicBlock;
+import cd.ir.ControlFlowGraph;
+import cd.ir.Symbol.MethodSymbol;
+import cd.ir.Symbol.TypeSymbol;
+import cd.ir.Symbol.VariableSymbol;
+import cd.transform.analysis.AnalysisManager;
+import cd.transform.analysis.CallGraph;
+import cd.transform.analysis.PreservedAnalyses;
+
+/**
+ * Turns self tail calls into loops. A tail call is a call whose result is
+ * returned right away, or a call of a <code>void</code> method after which
+ * the method returns, and it is a self tail call if the {@link CallGraph}
+ * finds the method itself as its only target.
+ * <p>
+ * Such a call is replaced by assignments of the new receiver and arguments
+ * to the parameters, followed by a jump to the beginning of the method. The
+ * locals are zeroed again, as they would be on a new call, and the receiver
+ * is checked for <code>null</code> as the call would. If some tail call has
+ * a receiver other than <code>this</code>, all uses of <code>this</code> in
+ * the method are replaced by a local holding the current receiver.
+ */
+public class TailRecursionEliminator implements MethodPass {
+
+	@Override
+	public PreservedAnalyses run(MethodDecl method, AnalysisManager analyses) {
+		CallGraph callGraph = analyses.getProgram(CallGraph.class);
+		ControlFlowGraph cfg = method.cfg;
+
+		List<BasicBlock> blocks = new ArrayList<BasicBlock>();
+		List<Integer> indices = new ArrayList<Integer>();
+		boolean otherReceiver = false;
+		for (BasicBlock block : cfg.allBlocks) {
+			int index = block == cfg.end ? -1 : tailCallIndex(cfg, block);
+			if (index < 0)
+				continue;
+			MethodCallExpr call = callOf(block.stmts.get(index));
+			Set<MethodSymbol> targets = callGraph.targetsOf(call);
+			if (targets.size() != 1 || targets.iterator().next() != method.sym)
+				continue;
+			blocks.add(block);
+			indices.add(index);
+			otherReceiver |= !(call.receiver() instanceof ThisRef);
+		}
+		if (blocks.isEmpty())
+			return PreservedAnalyses.all();
+
+		List<VariableSymbol> locals = new ArrayList<VariableSymbol>(method.sym.locals.values());
+		List<VariableSymbol> params = method.sym.parameters;
+
+		// The loop starts at the old start block, below a new block which
+		// sets up the current receiver.
+		BasicBlock loop = cfg.start;
+		BasicBlock entry = cfg.newBlock();
+		VariableSymbol self = null;
+		if (otherReceiver) {
+			self = freshLocal(method, "this", method.sym.owner);
+			replaceThis(cfg, self);
+			ThisRef thisRef = new ThisRef();
+			thisRef.type = method.sym.owner;
+			entry.stmts.add(new Assign(Var.withSym(self), thisRef));
+		}
+		cfg.connect(entry, loop);
+		cfg.start = entry;
+
+		List<VariableSymbol> temps = new ArrayList<VariableSymbol>();
+		for (VariableSymbol param : params)
+			temps.add(freshLocal(method, param.name, param.type));
+		VariableSymbol receiverTemp = otherReceiver ? freshLocal(method, "receiver", method.sym.owner) : null;
+
+		for (int i = 0; i < blocks.size(); i++) {
+			BasicBlock block = blocks.get(i);
+			int index = indices.get(i);
+			MethodCallExpr call = callOf(block.stmts.get(index));
+			List<Stmt> jump = new ArrayList<Stmt>();
+
+			// Evaluate the receiver and all arguments before any parameter
+			// changes, in the order the call would evaluate them.
+			Expr receiver = call.receiver();
+			boolean newReceiver = !(receiver instanceof ThisRef)
+					&& !(receiver instanceof Var && ((Var) receiver).sym == self);
+			if (newReceiver)
+				jump.add(new Assign(Var.withSym(receiverTemp), receiver));
+			List<Expr> arguments = call.argumentsWithoutReceiver();
+			boolean[] unchanged = new boolean[params.size()];
+			for (int j = 0; j < params.size(); j++) {
+				Expr arg = arguments.get(j);
+				unchanged[j] = arg instanceof Var && ((Var) arg).sym == params.get(j);
+				if (!unchanged[j])
+					jump.add(new Assign(Var.withSym(temps.get(j)), arg));
+			}
+			if (newReceiver) {
+				jump.add(new NullCheck(Var.withSym(receiverTemp)));
+				jump.add(new Assign(Var.withSym(self), Var.withSym(receiverTemp)));
+			}
+			for (int j = 0; j < params.size(); j++)
+				if (!unchanged[j])
+					jump.add(new Assign(Var.withSym(params.get(j)), Var.withSym(temps.get(j))));
+			for (VariableSymbol local : locals)
+				jump.add(new Assign(Var.withSym(local), Inliner.zero(local.type)));
+
+			block.stmts.subList(index, block.stmts.size()).clear();
+			block.stmts.addAll(jump);
+			block.condition = null;
+			for (BasicBlock succ : block.successors)
+				succ.predecessors.remove(block);
+			block.successors.clear();
+			cfg.connect(block, loop);
+		}
+		cfg.structureChanged();
+		// Without the removed calls, the call graph is still a safe
+		// approximation.
+		return PreservedAnalyses.none();
+	}
+
+	/**
+	 * Returns the index of the statement of <code>block</code> making a tail
+	 * call, or <code>-1</code> if there is none.
+	 */
+	private static int tailCallIndex(ControlFlowGraph cfg, BasicBlock block) {
+		List<Stmt> stmts = block.stmts;
+		for (int i = 0; i < stmts.size(); i++) {
+			Stmt stmt = stmts.get(i);
+			if (stmt instanceof ReturnStmt) {
+				if (((ReturnStmt) stmt).arg() instanceof MethodCallExpr)
+					return i;
+				if (((ReturnStmt) stmt).arg() == null && i > 0 && stmts.get(i - 1) instanceof MethodCall)
+					return i - 1;
+				return -1;
+			}
+		}
+		// A void call at the end of a block which only flows into an empty
+		// end block.
+		if (stmts.isEmpty() || !(stmts.get(stmts.size() - 1) instanceof MethodCall))
+			return -1;
+		if (block.condition != null || block.successors.size() != 1 || block.successors.get(0) != cfg.end)
+			return -1;
+		if (!cfg.end.stmts.isEmpty())
+			return -1;
+		return stmts.size() - 1;
+	}
+
+	private static MethodCallExpr callOf(Stmt stmt) {
+		if (stmt instanceof MethodCall)
+			return ((MethodCall) stmt).getMethodCallExpr();
+		return (MethodCallExpr) ((ReturnStmt) stmt).arg();
+	}
+
+	/** Replaces every <code>this</code> in <code>cfg</code> by <code>self</code>. */
+	private static void replaceThis(ControlFlowGraph cfg, final VariableSymbol self) {
+		AstRewriteVisitor<Void> rewriter = new AstRewriteVisitor<Void>() {
+			@Override
+			public Ast thisRef(ThisRef ast, Void arg) {
+				return Var.withSym(self);
+			}
+		};
+		for (BasicBlock block : cfg.allBlocks) {
+			for (Stmt stmt : block.stmts)
+				rewriter.visit(stmt, null);
+			if (block.condition != null)
+				block.condition = (Expr) rewriter.visit(block.condition, null);
+		}
+	}
+
+	private static VariableSymbol freshLocal(MethodDecl method, String name, TypeSymbol type) {
+		String base = "tail$" + name;
+		String unique = base;
+		for (int i = 1; method.sym.locals.containsKey(unique); i++)
+			unique = base + "$" + i;
+		VariableSymbol sym = new VariableSymbol(unique, type, VariableSymbol.Kind.LOCAL);
+		method.sym.locals.put(unique, sym);
+		return sym;
+	}
+}
@@ -0,0 +1,120 @@
+package cd.transform.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import cd.ir.Ast.ClassDecl;
+import cd.ir.Ast.MethodDecl;
+
+/**
+ * Runs per-method analyses for a whole program. The control flow graphs of
+ * different methods are independent, so every method is analyzed in its own
+ * task on a fork-join pool and the results are published into an
+ * {@link AnalysisResults} store.
+ * <p>
+ * Analyses run this way must only read shared data (ASTs, symbols) and keep
+ * all mutable state in the analysis object itself.
+ */
+public class AnalysisDriver {
+
+	/** Creates the result of one analysis for one method. */
+	public interface MethodAnalysis<A> {
+		A analyze(MethodDecl method);
+	}
+
+	public static final MethodAnalysis<ReachingDefsAnalysis> REACHING_DEFS = new MethodAnalysis<ReachingDefsAnalysis>() {
+		public ReachingDefsAnalysis analyze(MethodDecl method) {
+			return new ReachingDefsAnalysis(method.cfg);
+		}
+	};
+
+	public static final MethodAnalysis<NonNullAnalysis> NON_NULL = new MethodAnalysis<NonNullAnalysis>() {
+		public NonNullAnalysis analyze(MethodDecl method) {
+			return new NonNullAnalysis(method);
+		}
+	};
+
+	/**
+	 * Returns a non-null analysis that uses the given interprocedural
+	 * summaries. The summaries are only read, so they may be shared by all
+	 * tasks.
+	 */
+	public static MethodAnalysis<NonNullAnalysis> nonNull(final NonNullSummaries summaries) {
+		return new MethodAnalysis<NonNullAnalysis>() {
+			public NonNullAnalysis analyze(MethodDecl method) {
+				return new NonNullAnalysis(method, summaries);
+			}
+		};
+	}
+
+	public static final MethodAnalysis<DefUseChains> DEF_USE = new MethodAnalysis<DefUseChains>() {
+		public DefUseChains analyze(MethodDecl method) {
+			return new DefUseChains(method.cfg, new ReachingDefsAnalysis(method.cfg));
+		}
+	};
+
+	private final ForkJoinPool pool;
+
+	public AnalysisDriver() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	public AnalysisDriver(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Runs reaching definitions and non-null analysis on every method of
+	 * <code>astRoots</code> and returns the results.
+	 */
+	public AnalysisResults runAll(List<? extends ClassDecl> astRoots) {
+		AnalysisResults results = new AnalysisResults();
+		run(astRoots, results, ReachingDefsAnalysis.class, REACHING_DEFS);
+		run(astRoots, results, NonNullAnalysis.class, NON_NULL);
+		return results;
+	}
+
+	/**
+	 * Runs <code>analysis</code> on every method of <code>astRoots</code> and
+	 * returns the results.
+	 */
+	public <A> AnalysisResults run(List<? extends ClassDecl> astRoots, Class<A> kind, MethodAnalysis<A> analysis) {
+		AnalysisResults results = new AnalysisResults();
+		run(astRoots, results, kind, analysis);
+		return results;
+	}
+
+	/**
+	 * Runs <code>analysis</code> concurrently on every method of
+	 * <code>astRoots</code> and publishes the results into
+	 * <code>results</code> under <code>kind</code>. Returns once all methods
+	 * have been analyzed; an exception thrown by any task is rethrown here.
+	 */
+	public <A> void run(List<? extends ClassDecl> astRoots, final AnalysisResults results, final Class<A> kind,
+			final MethodAnalysis<A> analysis) {
+		final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+		for (ClassDecl cdecl : astRoots) {
+			for (final MethodDecl mdecl : cdecl.methods()) {
+				tasks.add(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						results.put(mdecl, kind, analysis.analyze(mdecl));
+					}
+				});
+			}
+		}
+
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+	}
+}
@@ -0,0 +1,283 @@
+package cd.transform.analysis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cd.ir.Ast.ClassDecl;
+import cd.ir.Ast.MethodDecl;
+import cd.transform.analysis.AnalysisDriver.MethodAnalysis;
+
+/**
+ * Computes analyses on demand and caches their results until a
+ * transformation invalidates them. Per-method analyses are cached per method
+ * and analysis class; whole-program analyses (such as the {@link CallGraph})
+ * per analysis class.
+ * <p>
+ * After changing a method, a transformation reports which analyses it
+ * preserved with {@link #invalidate(MethodDecl, PreservedAnalyses)}. All
+ * other results for that method are dropped and recomputed the next time
+ * they are requested. Whole-program results are only dropped if the
+ * transformation {@link PreservedAnalyses#abandoning abandons} them, or if
+ * it changed the whole program, see
+ * {@link #invalidateProgram(PreservedAnalyses)}. A transformation that
+ * preserves the behavior of a method leaves the summaries of other methods
+ * valid, and removing calls leaves the call graph a safe approximation.
+ * <p>
+ * Analyses are registered together with the analyses their results are
+ * computed from. Whenever a result is dropped, the results depending on it
+ * are dropped as well, even if they were preserved: the def-use chains of a
+ * method go with its reaching definitions, and the summaries with the call
+ * graph.
+ * <p>
+ * The manager may be used from several threads. Two threads requesting the
+ * same missing result may both compute it; one of the results wins.
+ */
+public class AnalysisManager {
+
+	/** Creates the result of a whole-program analysis. */
+	public interface ProgramAnalysis<A> {
+		A analyze(List<ClassDecl> astRoots);
+	}
+
+	private final List<ClassDecl> astRoots;
+	private final AnalysisDriver driver;
+
+	private final Map<Class<?>, MethodAnalysis<?>> methodAnalyses = new ConcurrentHashMap<Class<?>, MethodAnalysis<?>>();
+	private final Map<Class<?>, ProgramAnalysis<?>> programAnalyses = new ConcurrentHashMap<Class<?>, ProgramAnalysis<?>>();
+
+	private final AnalysisResults methodResults = new AnalysisResults();
+	private final Map<Class<?>, Object> programResults = new ConcurrentHashMap<Class<?>, Object>();
+
+	/** For every analysis, the analyses which are computed from its results. */
+	private final Map<Class<?>, Set<Class<?>>> dependents = new ConcurrentHashMap<Class<?>, Set<Class<?>>>();
+
+	/**
+	 * Creates a manager for the program <code>astRoots</code> with the
+	 * analyses of this package registered: reaching definitions, def-use
+	 * chains and non-null analysis per method, and the call graph, non-null
+	 * summaries and side effect summaries for the whole program. The
+	 * non-null analysis uses the non-null summaries.
+	 */
+	public AnalysisManager(List<ClassDecl> astRoots) {
+		this(astRoots, new AnalysisDriver());
+	}
+
+	public AnalysisManager(List<ClassDecl> astRoots, AnalysisDriver driver) {
+		this.astRoots = astRoots;
+		this.driver = driver;
+
+		register(ReachingDefsAnalysis.class, AnalysisDriver.REACHING_DEFS);
+		register(NonNullAnalysis.class, new MethodAnalysis<NonNullAnalysis>() {
+			public NonNullAnalysis analyze(MethodDecl method) {
+				return AnalysisDriver.nonNull(getProgram(NonNullSummaries.class)).analyze(method);
+			}
+		}, NonNullSummaries.class);
+		register(DefUseChains.class, new MethodAnalysis<DefUseChains>() {
+			public DefUseChains analyze(MethodDecl method) {
+				return new DefUseChains(method.cfg, get(method, ReachingDefsAnalysis.class));
+			}
+		}, ReachingDefsAnalysis.class);
+		registerProgram(CallGraph.class, new ProgramAnalysis<CallGraph>() {
+			public CallGraph analyze(List<ClassDecl> astRoots) {
+				return new CallGraph(astRoots);
+			}
+		});
+		registerProgram(NonNullSummaries.class, new ProgramAnalysis<NonNullSummaries>() {
+			public NonNullSummaries analyze(List<ClassDecl> astRoots) {
+				return new NonNullSummaries(getProgram(CallGraph.class));
+			}
+		}, CallGraph.class);
+		registerProgram(SideEffectSummaries.class, new ProgramAnalysis<SideEffectSummaries>() {
+			public SideEffectSummaries analyze(List<ClassDecl> astRoots) {
+				return new SideEffectSummaries(getProgram(CallGraph.class));
+			}
+		}, CallGraph.class);
+	}
+
+	/**
+	 * Registers <code>analysis</code> as the way to compute per-method
+	 * results of type <code>kind</code>, replacing any previous one. Cached
+	 * results of that type, and of the analyses depending on it, are
+	 * dropped. <code>dependencies</code> are the method or whole-program
+	 * analyses whose results <code>analysis</code> uses.
+	 */
+	public <A> void register(Class<A> kind, MethodAnalysis<A> analysis, Class<?>... dependencies) {
+		methodAnalyses.put(kind, analysis);
+		addDependencies(kind, dependencies);
+		drop(Collections.<Class<?>> singleton(kind));
+	}
+
+	/**
+	 * Registers <code>analysis</code> as the way to compute the
+	 * whole-program result of type <code>kind</code>, replacing any previous
+	 * one. <code>dependencies</code> are the whole-program analyses whose
+	 * results <code>analysis</code> uses.
+	 */
+	public <A> void registerProgram(Class<A> kind, ProgramAnalysis<A> analysis, Class<?>... dependencies) {
+		programAnalyses.put(kind, analysis);
+		addDependencies(kind, dependencies);
+		drop(Collections.<Class<?>> singleton(kind));
+	}
+
+	private void addDependencies(Class<?> kind, Class<?>[] dependencies) {
+		for (Class<?> dependency : dependencies) {
+			Set<Class<?>> set = dependents.get(dependency);
+			if (set == null) {
+				set = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+				dependents.put(dependency, set);
+			}
+			set.add(kind);
+		}
+	}
+
+	/**
+	 * Returns the result of analysis <code>kind</code> for
+	 * <code>method</code>, computing it if it is not cached.
+	 */
+	public <A> A get(MethodDecl method, Class<A> kind) {
+		A result = methodResults.get(method, kind);
+		if (result == null) {
+			result = analysisFor(kind).analyze(method);
+			methodResults.put(method, kind, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the whole-program result of analysis <code>kind</code>,
+	 * computing it if it is not cached. Method analyses running
+	 * concurrently share one result.
+	 */
+	public synchronized <A> A getProgram(Class<A> kind) {
+		A result = kind.cast(programResults.get(kind));
+		if (result == null) {
+			@SuppressWarnings("unchecked")
+			ProgramAnalysis<A> analysis = (ProgramAnalysis<A>) programAnalyses.get(kind);
+			if (analysis == null)
+				throw new IllegalArgumentException("no program analysis registered for " + kind.getName());
+			result = analysis.analyze(astRoots);
+			programResults.put(kind, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns whether a result of analysis <code>kind</code> for
+	 * <code>method</code> is cached.
+	 */
+	public boolean isCached(MethodDecl method, Class<?> kind) {
+		return methodResults.get(method, kind) != null;
+	}
+
+	/**
+	 * Computes the results of analysis <code>kind</code> for all methods
+	 * that do not have a cached one, concurrently on the driver's pool.
+	 */
+	public <A> void computeAll(Class<A> kind) {
+		final MethodAnalysis<A> analysis = analysisFor(kind);
+		List<ClassDecl> missing = new ArrayList<ClassDecl>();
+		for (ClassDecl cdecl : astRoots) {
+			boolean complete = true;
+			for (MethodDecl mdecl : cdecl.methods())
+				complete &= isCached(mdecl, kind);
+			if (!complete)
+				missing.add(cdecl);
+		}
+		final AnalysisResults results = methodResults;
+		final Class<A> resultKind = kind;
+		driver.run(missing, results, kind, new MethodAnalysis<A>() {
+			public A analyze(MethodDecl method) {
+				A cached = results.get(method, resultKind);
+				return cached != null ? cached : analysis.analyze(method);
+			}
+		});
+	}
+
+	/**
+	 * Drops all results for <code>method</code> except those in
+	 * <code>preserved</code>, the whole-program results it abandons, and
+	 * all results depending on them. Must be called after every
+	 * transformation of <code>method</code>.
+	 */
+	public void invalidate(MethodDecl method, PreservedAnalyses preserved) {
+		if (preserved.preservesAll())
+			return;
+		Set<Class<?>> dropped = new HashSet<Class<?>>();
+		for (Class<?> kind : methodResults.kindsOf(method))
+			if (!preserved.preserves(kind))
+				dropped.add(kind);
+		for (Class<?> kind : withDependents(dropped))
+			if (methodAnalyses.containsKey(kind))
+				methodResults.remove(method, kind);
+		drop(preserved.abandoned());
+	}
+
+	/**
+	 * Drops all whole-program results except those in
+	 * <code>preserved</code>, and all results depending on them. Must be
+	 * called after transformations that change the program as a whole, such
+	 * as inlining methods into others or removing methods or classes.
+	 */
+	public void invalidateProgram(PreservedAnalyses preserved) {
+		if (preserved.preservesAll())
+			return;
+		Set<Class<?>> dropped = new HashSet<Class<?>>();
+		for (Class<?> kind : programResults.keySet())
+			if (!preserved.preserves(kind))
+				dropped.add(kind);
+		drop(dropped);
+	}
+
+	/**
+	 * Drops the results of the analyses <code>kinds</code> and of the
+	 * analyses depending on them, for all methods.
+	 */
+	private void drop(Collection<Class<?>> kinds) {
+		for (Class<?> kind : withDependents(kinds)) {
+			programResults.remove(kind);
+			if (methodAnalyses.containsKey(kind))
+				for (ClassDecl cdecl : astRoots)
+					for (MethodDecl mdecl : cdecl.methods())
+						methodResults.remove(mdecl, kind);
+		}
+	}
+
+	/**
+	 * Returns <code>kinds</code> together with all analyses depending on
+	 * them, directly or indirectly.
+	 */
+	private Set<Class<?>> withDependents(Collection<Class<?>> kinds) {
+		Set<Class<?>> result = new HashSet<Class<?>>(kinds);
+		List<Class<?>> worklist = new ArrayList<Class<?>>(kinds);
+		while (!worklist.isEmpty()) {
+			Set<Class<?>> direct = dependents.get(worklist.remove(worklist.size() - 1));
+			if (direct != null)
+				for (Class<?> dependent : direct)
+					if (result.add(dependent))
+						worklist.add(dependent);
+		}
+		return result;
+	}
+
+	/** Drops all cached results. */
+	public void invalidateAll() {
+		for (ClassDecl cdecl : astRoots)
+			for (MethodDecl mdecl : cdecl.methods())
+				invalidate(mdecl, PreservedAnalyses.none());
+		programResults.clear();
+	}
+
+	private <A> MethodAnalysis<A> analysisFor(Class<A> kind) {
+		@SuppressWarnings("unchecked")
+		MethodAnalysis<A> analysis = (MethodAnalysis<A>) methodAnalyses.get(kind);
+		if (analysis == null)
+			throw new IllegalArgumentException("no method analysis registered for " + kind.getName());
+		return analysis;
+	}
+}
@@ -0,0 +1,67 @@
+package cd.transform.analysis;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import cd.ir.Ast.MethodDecl;
+
+/**
+ * Thread-safe store for the results of per-method analyses, keyed by method
+ * and by the class of the analysis. Results may be published and looked up
+ * concurrently from several threads; publishing a result makes it, and
+ * everything it computed, visible to every thread that later retrieves it.
+ */
+public class AnalysisResults {
+
+	private final ConcurrentMap<MethodDecl, ConcurrentMap<Class<?>, Object>> results =
+			new ConcurrentHashMap<MethodDecl, ConcurrentMap<Class<?>, Object>>();
+
+	/**
+	 * Returns the result of analysis <code>kind</code> for
+	 * <code>method</code>, or <code>null</code> if none has been published.
+	 */
+	public <A> A get(MethodDecl method, Class<A> kind) {
+		ConcurrentMap<Class<?>, Object> methodResults = results.get(method);
+		if (methodResults == null)
+			return null;
+		return kind.cast(methodResults.get(kind));
+	}
+
+	/**
+	 * Publishes <code>result</code> as the result of analysis
+	 * <code>kind</code> for <code>method</code>, replacing any previous one.
+	 */
+	public <A> void put(MethodDecl method, Class<A> kind, A result) {
+		ConcurrentMap<Class<?>, Object> methodResults = results.get(method);
+		if (methodResults == null) {
+			ConcurrentMap<Class<?>, Object> fresh = new ConcurrentHashMap<Class<?>, Object>();
+			methodResults = results.putIfAbsent(method, fresh);
+			if (methodResults == null)
+				methodResults = fresh;
+		}
+		methodResults.put(kind, result);
+	}
+
+	/**
+	 * Returns the analyses for which a result for <code>method</code> has
+	 * been published.
+	 */
+	public Set<Class<?>> kindsOf(MethodDecl method) {
+		ConcurrentMap<Class<?>, Object> methodResults = results.get(method);
+		if (methodResults == null)
+			return Collections.emptySet();
+		return Collections.unmodifiableSet(methodResults.keySet());
+	}
+
+	/**
+	 * Removes the result of analysis <code>kind</code> for
+	 * <code>method</code>, if any.
+	 */
+	public void remove(MethodDecl method, Class<?> kind) {
+		ConcurrentMap<Class<?>, Object> methodResults = results.get(method);
+		if (methodResults != null)
+			methodResults.remove(kind);
+	}
+}
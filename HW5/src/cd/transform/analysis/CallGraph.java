@@ -0,0 +1,196 @@
+package cd.transform.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cd.ir.Ast.ClassDecl;
+import cd.ir.Ast.MethodCallExpr;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NewObject;
+import cd.ir.Ast.Stmt;
+import cd.ir.AstVisitor;
+import cd.ir.BasicBlock;
+import cd.ir.Symbol.ClassSymbol;
+import cd.ir.Symbol.MethodSymbol;
+import cd.util.StronglyConnectedComponents;
+import cd.util.StronglyConnectedComponents.Edges;
+
+/**
+ * The call graph of a program, built from the control flow graphs of its
+ * methods. Virtual calls are resolved by rapid type analysis: a call may
+ * dispatch to the method that an instantiated class inherits or overrides
+ * from the statically resolved method. A class is instantiated if some
+ * reachable method creates an object of it, and <code>Main</code> always
+ * is. Starting from <code>Main.main()</code>, a method is reachable if a
+ * reachable method may call it.
+ */
+public class CallGraph {
+
+	private final List<MethodDecl> methods = new ArrayList<MethodDecl>();
+	private final Set<ClassSymbol> instantiated = new LinkedHashSet<ClassSymbol>();
+	private final Set<MethodDecl> reachable = new LinkedHashSet<MethodDecl>();
+	private final Map<MethodSymbol, Set<MethodSymbol>> targets = new HashMap<MethodSymbol, Set<MethodSymbol>>();
+	private final Map<MethodDecl, List<MethodCallExpr>> callSites = new HashMap<MethodDecl, List<MethodCallExpr>>();
+	private final Map<MethodDecl, List<MethodDecl>> callees = new HashMap<MethodDecl, List<MethodDecl>>();
+
+	public CallGraph(List<? extends ClassDecl> astRoots) {
+		MethodDecl root = null;
+		for (ClassDecl cdecl : astRoots) {
+			methods.addAll(cdecl.methods());
+			if (cdecl.name.equals("Main")) {
+				instantiated.add(cdecl.sym);
+				root = cdecl.sym.getMethod("main").ast;
+			}
+		}
+
+		Map<MethodDecl, Set<ClassSymbol>> creations = new HashMap<MethodDecl, Set<ClassSymbol>>();
+		for (MethodDecl mdecl : methods) {
+			final List<MethodCallExpr> calls = new ArrayList<MethodCallExpr>();
+			final Set<ClassSymbol> created = new LinkedHashSet<ClassSymbol>();
+			AstVisitor<Void, Void> collector = new AstVisitor<Void, Void>() {
+				@Override
+				public Void methodCall(MethodCallExpr ast, Void arg) {
+					calls.add(ast);
+					return visitChildren(ast, arg);
+				}
+
+				@Override
+				public Void newObject(NewObject ast, Void arg) {
+					created.add((ClassSymbol) ast.type);
+					return null;
+				}
+			};
+			for (BasicBlock block : mdecl.cfg.allBlocks) {
+				for (Stmt stmt : block.stmts)
+					collector.visit(stmt, null);
+				if (block.condition != null)
+					collector.visit(block.condition, null);
+			}
+			callSites.put(mdecl, calls);
+			creations.put(mdecl, created);
+		}
+
+		// Every newly instantiated class may add targets to the calls seen so
+		// far, so iterate until neither grows. Calls already bound to a
+		// single method keep it reachable even if its class is no longer
+		// created anywhere.
+		List<MethodDecl> order = new ArrayList<MethodDecl>();
+		Set<MethodSymbol> calledMethods = new LinkedHashSet<MethodSymbol>();
+		if (root != null && reachable.add(root))
+			order.add(root);
+		for (int done = 0; done < order.size();) {
+			while (done < order.size()) {
+				MethodDecl mdecl = order.get(done++);
+				instantiated.addAll(creations.get(mdecl));
+				for (MethodCallExpr call : callSites.get(mdecl)) {
+					calledMethods.add(call.sym);
+					if (call.directTarget != null && reachable.add(call.directTarget.ast))
+						order.add(call.directTarget.ast);
+				}
+			}
+			for (MethodSymbol method : calledMethods)
+				for (ClassSymbol cls : instantiated)
+					if (method.owner.isSuperTypeOf(cls)) {
+						MethodDecl target = cls.getMethod(method.name).ast;
+						if (reachable.add(target))
+							order.add(target);
+					}
+		}
+
+		// Calls to a method dispatch, for every instantiated subclass of its
+		// owner, to the method with the same name that class has.
+		for (MethodDecl mdecl : methods) {
+			Set<MethodSymbol> result = targetsOf(mdecl.sym);
+			for (ClassSymbol cls : instantiated)
+				if (mdecl.sym.owner.isSuperTypeOf(cls))
+					result.add(cls.getMethod(mdecl.name));
+		}
+
+		for (MethodDecl mdecl : methods) {
+			List<MethodCallExpr> calls = callSites.get(mdecl);
+			Set<MethodDecl> called = new LinkedHashSet<MethodDecl>();
+			for (MethodCallExpr call : calls)
+				for (MethodSymbol target : targetsOf(call))
+					called.add(target.ast);
+			callees.put(mdecl, new ArrayList<MethodDecl>(called));
+		}
+	}
+
+	/** Returns all methods of the program. */
+	public List<MethodDecl> methods() {
+		return Collections.unmodifiableList(methods);
+	}
+
+	/**
+	 * Returns whether <code>method</code> may be called when the program
+	 * runs.
+	 */
+	public boolean isReachable(MethodDecl method) {
+		return reachable.contains(method);
+	}
+
+	/** Returns the classes of which objects may be created. */
+	public Set<ClassSymbol> instantiatedClasses() {
+		return Collections.unmodifiableSet(instantiated);
+	}
+
+	/**
+	 * Returns the methods a call to <code>method</code> may dispatch to:
+	 * <code>method</code> itself or methods overriding it, as far as they
+	 * are inherited by an instantiated class. The result is empty if no
+	 * object the method could be called on is ever created.
+	 */
+	public Set<MethodSymbol> targetsOf(MethodSymbol method) {
+		Set<MethodSymbol> result = targets.get(method);
+		if (result == null) {
+			result = new LinkedHashSet<MethodSymbol>();
+			targets.put(method, result);
+		}
+		return result;
+	}
+
+	/** Returns the methods <code>call</code> may dispatch to. */
+	public Set<MethodSymbol> targetsOf(MethodCallExpr call) {
+		return targetsOf(call.sym);
+	}
+
+	/** Returns all calls made by <code>method</code>. */
+	public List<MethodCallExpr> callSitesIn(MethodDecl method) {
+		return callSites.get(method);
+	}
+
+	/** Returns all methods <code>method</code> may call. */
+	public List<MethodDecl> calleesOf(MethodDecl method) {
+		return callees.get(method);
+	}
+
+	/**
+	 * Returns the strongly connected components of the call graph, callees
+	 * first: every method comes after all methods it may call, except for
+	 * those in its own component.
+	 */
+	public List<List<MethodDecl>> bottomUpComponents() {
+		return StronglyConnectedComponents.compute(methods, calleeEdges());
+	}
+
+	/**
+	 * Returns whether the methods of <code>component</code> may call each
+	 * other (or, for a single method, itself) recursively.
+	 */
+	public boolean isRecursive(List<MethodDecl> component) {
+		return StronglyConnectedComponents.isCyclic(component, calleeEdges());
+	}
+
+	private Edges<MethodDecl> calleeEdges() {
+		return new Edges<MethodDecl>() {
+			public Iterable<MethodDecl> of(MethodDecl method) {
+				return callees.get(method);
+			}
+		};
+	}
+}
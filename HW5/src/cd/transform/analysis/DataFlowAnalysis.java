@@ -1,12 +1,13 @@
 package cd.transform.analysis;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Set;
 
 import cd.ToDoException;
 import cd.ir.BasicBlock;
+import cd.ir.CompactCfg;
 import cd.ir.ControlFlowGraph;
 
 /**
@@ -23,77 +24,170 @@ import cd.ir.ControlFlowGraph;
 public abstract class DataFlowAnalysis<State> {
 
 	protected final ControlFlowGraph cfg;
-	private Map<BasicBlock, State> inStates;
-	private Map<BasicBlock, State> outStates;
+	// Block-indexed states, allocated by iterate().
+	private State[] inStates;
+	private State[] outStates;
 
 	public DataFlowAnalysis(ControlFlowGraph cfg) {
 		this.cfg = cfg;
-		inStates = new HashMap<BasicBlock, State>();
-		outStates = new HashMap<BasicBlock, State>();
-		
-		for (BasicBlock block : cfg.allBlocks) {
-			outStates.put(block, initialState());
-		}
-		outStates.put(cfg.start, startState());
 	}
 
 	/**
 	 * Returns the in-state of basic block <code>block</code>.
 	 */
 	public State inStateOf(BasicBlock block) {
-		return inStates.get(block);
+		return inStates == null ? null : inStates[block.index];
 	}
 
 	/**
 	 * Returns the out-state of basic block <code>block</code>.
 	 */
 	public State outStateOf(BasicBlock block) {
-		return outStates.get(block);
+		return outStates == null ? null : outStates[block.index];
 	}
 
 	/**
-	 * Do forward flow fixed-point iteration until out-states do not change
-	 * anymore. Subclasses should call this method in their constructor after
-	 * the required initialization.
+	 * Runs the fixed-point iteration until out-states do not change anymore.
+	 * Subclasses should call this method in their constructor after the
+	 * required initialization.
+	 * <p>
+	 * The solver is worklist-driven: blocks are visited in reverse
+	 * postorder (postorder for backward analyses), and a block is only
+	 * revisited when the out-state of one of the blocks flowing into it
+	 * has changed. The graph is walked through its {@link CompactCfg} view,
+	 * and states are kept in arrays indexed by block. Analyses whose
+	 * transfer function is not {@link #isLocal() local} are instead swept
+	 * over all blocks, in index order, until no out-state changes.
+	 * <p>
+	 * Out-states are initialized here rather than in the constructor, so
+	 * that {@link #initialState()} and {@link #startState()} may depend on
+	 * fields of the subclass.
 	 */
 	protected void iterate() {
-		
-
-		boolean change = true;
-
-		// Iterate over blocks until outstates don't change anymore.
-		while (change) {
-			change = false;
-			for (BasicBlock block : cfg.allBlocks) {
-				
-				Set<State> states = new HashSet<State>();
-				for (BasicBlock predecessor : block.predecessors) {
-					states.add(outStates.get(predecessor));
-				}
-
-				State in = join(states);
-				inStates.put(block, in);
-				
-				State out = transferFunction(block, in);
-								
-				if (!outStates.get(block).equals(out)) {
-					change = true;
-				}
-				outStates.put(block, out);
-				
+		CompactCfg graph = cfg.compact();
+		int n = graph.count();
+		boolean forward = isForward();
+
+		inStates = newStateArray(n);
+		outStates = newStateArray(n);
+		for (int b = 0; b < n; b++)
+			outStates[b] = initialState();
+		int first = forward ? graph.start() : graph.end();
+		outStates[first] = startState();
+
+		// Blocks are scheduled by position in the visiting order; the
+		// worklist holds positions, so the lowest set bit is visited next.
+		int[] order = new int[n];
+		int[] position = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = forward ? graph.reversePostOrder(i) : graph.postOrder(i);
+			position[order[i]] = i;
+		}
+		BitSet worklist = new BitSet(n);
+		worklist.set(0, n);
+		boolean[] visited = new boolean[n];
+
+		// Reused for every join; states are compared by identity since
+		// joining the same state twice never changes the result.
+		Set<State> states = Collections.newSetFromMap(new IdentityHashMap<State, Boolean>());
+
+		if (!isLocal()) {
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+				for (int b = 0; b < n; b++)
+					changed |= visit(graph, b, states, visited);
+			}
+			return;
+		}
+
+		for (int pos = worklist.nextSetBit(0); pos >= 0; pos = worklist.nextSetBit(0)) {
+			worklist.clear(pos);
+			int b = order[pos];
+			if (visit(graph, b, states, visited)) {
+				int targets = forward ? graph.successorCount(b) : graph.predecessorCount(b);
+				for (int i = 0; i < targets; i++)
+					worklist.set(position[forward ? graph.successor(b, i) : graph.predecessor(b, i)]);
 			}
 		}
 	}
 
+	/**
+	 * Recomputes the in- and out-state of block <code>b</code> and returns
+	 * whether its out-state changed.
+	 */
+	private boolean visit(CompactCfg graph, int b, Set<State> states, boolean[] visited) {
+		boolean forward = isForward();
+		states.clear();
+		int sources = forward ? graph.predecessorCount(b) : graph.successorCount(b);
+		for (int i = 0; i < sources; i++)
+			states.add(outStates[forward ? graph.predecessor(b, i) : graph.successor(b, i)]);
+
+		State in = join(states);
+		inStates[b] = in;
+
+		BasicBlock block = graph.block(b);
+		State out = transferFunction(block, in);
+		State previous = outStates[b];
+		if (visited[b])
+			out = widen(block, previous, out);
+		visited[b] = true;
+		outStates[b] = out;
+		return !previous.equals(out);
+	}
+
+	@SuppressWarnings("unchecked")
+	private State[] newStateArray(int size) {
+		return (State[]) new Object[size];
+	}
+
+	/**
+	 * Returns {@code true} if this is a forward analysis (the default),
+	 * where states flow from predecessors to successors and the
+	 * {@link ControlFlowGraph#start start} block receives the
+	 * {@link #startState()}. Backward analyses return {@code false}: states
+	 * then flow from successors to predecessors, the
+	 * {@link ControlFlowGraph#end end} block receives the start state, and
+	 * {@link #inStateOf(BasicBlock)} refers to the state at the end of a
+	 * block.
+	 */
+	protected boolean isForward() {
+		return true;
+	}
+
+	/**
+	 * Returns {@code true} if the transfer function of a block only depends
+	 * on its in-state (the default). Analyses whose transfer function also
+	 * reads or updates state shared between blocks return {@code false};
+	 * visiting only the blocks whose inputs changed would then miss changes
+	 * of that state, so they are solved by sweeping over all blocks.
+	 */
+	protected boolean isLocal() {
+		return true;
+	}
+
+	/**
+	 * Widening hook, called whenever the out-state of a block is recomputed
+	 * after its first visit. Analyses over lattices of unbounded height can
+	 * override this to extrapolate from {@code previous} to {@code next} and
+	 * guarantee termination. The default implementation returns
+	 * {@code next}.
+	 */
+	protected State widen(BasicBlock block, State previous, State next) {
+		return next;
+	}
+
 	/**
 	 * Returns the initial state for all blocks except the
-	 * {@link ControlFlowGraph#start start} block.
+	 * {@link ControlFlowGraph#start start} block (the
+	 * {@link ControlFlowGraph#end end} block for backward analyses).
 	 */
 	protected abstract State initialState();
 
 	/**
 	 * Returns the initial state for the {@link ControlFlowGraph#start start}
-	 * block.
+	 * block (the {@link ControlFlowGraph#end end} block for backward
+	 * analyses).
 	 */
 	protected abstract State startState();
 
@@ -105,7 +199,8 @@ public abstract class DataFlowAnalysis<State> {
 
 	/**
 	 * Merges together several out-states and returns the in-state for the
-	 * transfer function.
+	 * transfer function. The set passed in is reused by the solver, so
+	 * implementations must not keep a reference to it.
 	 */
 	protected abstract State join(Set<State> states);
 }
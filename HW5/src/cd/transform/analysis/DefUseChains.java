@@ -0,0 +1,362 @@
+package cd.transform.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cd.ir.Ast;
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.Var;
+import cd.ir.AstRewriteVisitor;
+import cd.ir.AstVisitor;
+import cd.ir.BasicBlock;
+import cd.ir.ControlFlowGraph;
+import cd.transform.analysis.ReachingDefsAnalysis.Def;
+
+/**
+ * Def-use and use-def chains of one method, built once from a
+ * {@link ReachingDefsAnalysis}. A use is a {@link Var} read by a statement or
+ * a block condition; the chains link each use to the definitions reaching it
+ * and each definition to the uses it reaches.
+ * <p>
+ * Definitions are identified by their index in
+ * {@link ReachingDefsAnalysis#definitions()}, uses by a dense index of their
+ * own, and both directions of the chains are stored as int arrays.
+ * <p>
+ * The chains can be kept up to date while statements are rewritten, either
+ * by reporting each replacement to {@link #replace(Stmt, Ast, Ast)} or by
+ * doing the rewrite with a {@link Rewriter}. Rewrites may remove uses and
+ * definitions and add new uses, but not add new definitions; that requires
+ * recomputing the reaching definitions.
+ */
+public class DefUseChains {
+
+	private static final int[] EMPTY = new int[0];
+
+	private final ReachingDefsAnalysis reachingDefs;
+	private final Numbering<Def> defs;
+	private final Map<Assign, Integer> defIndex = new HashMap<Assign, Integer>();
+	private final Map<Stmt, BasicBlock> stmtBlocks = new HashMap<Stmt, BasicBlock>();
+
+	// Uses by index; removed uses leave a null entry behind.
+	private final List<Var> useVars = new ArrayList<Var>();
+	private final Map<Var, Integer> useIndex = new HashMap<Var, Integer>();
+
+	private int[][] useDefs = new int[16][];
+	private int[] useDefCount = new int[16];
+	private final int[][] defUses;
+	private final int[] defUseCount;
+
+	public DefUseChains(ControlFlowGraph cfg, ReachingDefsAnalysis reachingDefs) {
+		this.reachingDefs = reachingDefs;
+		this.defs = reachingDefs.definitions();
+
+		defUses = new int[defs.size()][];
+		defUseCount = new int[defs.size()];
+		for (int i = 0; i < defs.size(); i++) {
+			defIndex.put(defs.get(i).assign, i);
+			defUses[i] = EMPTY;
+		}
+
+		for (BasicBlock block : cfg.allBlocks) {
+			IndexSet<Def> state = entryState(block);
+			for (Stmt stmt : block.stmts) {
+				stmtBlocks.put(stmt, block);
+				addUses(stmt, stmt, state);
+				applyDef(stmt, state);
+			}
+			if (block.condition != null)
+				addUses(block.condition, null, state);
+		}
+	}
+
+	/**
+	 * Returns the uses reached by the definition <code>def</code>, or an
+	 * empty list if <code>def</code> is not a definition of this method.
+	 */
+	public List<Var> usesOf(Assign def) {
+		Integer index = defIndex.get(def);
+		if (index == null)
+			return Collections.emptyList();
+		List<Var> result = new ArrayList<Var>(defUseCount[index]);
+		for (int i = 0; i < defUseCount[index]; i++)
+			result.add(useVars.get(defUses[index][i]));
+		return result;
+	}
+
+	/**
+	 * Returns the number of uses reached by the definition <code>def</code>.
+	 */
+	public int useCount(Assign def) {
+		Integer index = defIndex.get(def);
+		return index == null ? 0 : defUseCount[index];
+	}
+
+	/**
+	 * Returns the definitions reaching the use <code>use</code>, or an empty
+	 * list if <code>use</code> is not a use of this method. An empty list for
+	 * a use of a parameter means that only the parameter's incoming value
+	 * can reach it.
+	 */
+	public List<Def> defsOf(Var use) {
+		Integer index = useIndex.get(use);
+		if (index == null)
+			return Collections.emptyList();
+		List<Def> result = new ArrayList<Def>(useDefCount[index]);
+		for (int i = 0; i < useDefCount[index]; i++)
+			result.add(defs.get(useDefs[index][i]));
+		return result;
+	}
+
+	public boolean isDefinition(Assign assign) {
+		return defIndex.containsKey(assign);
+	}
+
+	public boolean isUse(Var var) {
+		return useIndex.containsKey(var);
+	}
+
+	/**
+	 * Updates the chains after <code>oldNode</code> has been replaced by
+	 * <code>newNode</code> within the statement <code>stmt</code>. If a whole
+	 * statement has been replaced, <code>oldNode</code> and <code>stmt</code>
+	 * are the old statement and <code>newNode</code> is the new one (or
+	 * <code>null</code> if it has been removed); it must already be in place in
+	 * its block.
+	 * <p>
+	 * Removing a definition that still reaches uses only unlinks it from
+	 * those uses; they are not linked to the definitions it used to kill.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <code>newNode</code> is a new definition
+	 */
+	public void replace(Stmt stmt, Ast oldNode, Ast newNode) {
+		BasicBlock block = stmtBlocks.get(stmt);
+		if (block == null)
+			throw new IllegalArgumentException("statement is not part of this method");
+		if (oldNode == stmt) {
+			stmtBlocks.remove(stmt);
+			stmt = (Stmt) newNode;
+			if (stmt != null)
+				stmtBlocks.put(stmt, block);
+		}
+		replace(block, stmt, oldNode, newNode);
+	}
+
+	/**
+	 * Updates the chains after <code>oldNode</code> has been replaced by
+	 * <code>newNode</code> within the condition of <code>block</code>.
+	 */
+	public void replaceInCondition(BasicBlock block, Ast oldNode, Ast newNode) {
+		replace(block, null, oldNode, newNode);
+	}
+
+	private void replace(BasicBlock block, Stmt stmt, Ast oldNode, Ast newNode) {
+		if (newNode instanceof Assign && ((Assign) newNode).left() instanceof Var && !defIndex.containsKey(newNode))
+			throw new IllegalArgumentException("new definitions require recomputing reaching definitions");
+
+		for (Var var : collectVars(oldNode, false)) {
+			Integer index = useIndex.get(var);
+			if (index != null)
+				removeUse(index);
+		}
+		if (oldNode instanceof Assign) {
+			Integer index = defIndex.remove(oldNode);
+			if (index != null)
+				removeDef(index);
+		}
+
+		// The target of an assignment is not a use.
+		boolean isTarget = stmt instanceof Assign && ((Assign) stmt).left() == newNode && newNode instanceof Var;
+		if (newNode != null && !isTarget) {
+			IndexSet<Def> state = stateBefore(block, stmt);
+			addUses(newNode, stmt, state);
+		}
+	}
+
+	/**
+	 * Returns the reaching definitions before <code>stmt</code> in
+	 * <code>block</code>, or at the end of the block if <code>stmt</code> is
+	 * <code>null</code>.
+	 */
+	private IndexSet<Def> stateBefore(BasicBlock block, Stmt stmt) {
+		IndexSet<Def> state = entryState(block);
+		for (Stmt s : block.stmts) {
+			if (s == stmt)
+				break;
+			applyDef(s, state);
+		}
+		return state;
+	}
+
+	private IndexSet<Def> entryState(BasicBlock block) {
+		IndexSet<Def> in = reachingDefs.inStateOf(block);
+		return in != null ? new IndexSet<Def>(in) : new IndexSet<Def>(defs);
+	}
+
+	private void applyDef(Stmt stmt, IndexSet<Def> state) {
+		Integer index = defIndex.get(stmt);
+		if (index != null) {
+			state.subtract(reachingDefs.definitionsOf(defs.get(index).target));
+			state.addIndex(index);
+		}
+	}
+
+	private void addUses(Ast node, Stmt stmt, IndexSet<Def> state) {
+		for (Var var : collectVars(node, true)) {
+			int use = useVars.size();
+			useVars.add(var);
+			useIndex.put(var, use);
+			if (use == useDefs.length) {
+				useDefs = Arrays.copyOf(useDefs, use * 2);
+				useDefCount = Arrays.copyOf(useDefCount, use * 2);
+			}
+			useDefs[use] = EMPTY;
+
+			IndexSet<Def> varDefs = reachingDefs.definitionsOf(var.name);
+			for (int def = varDefs.nextIndex(0); def >= 0; def = varDefs.nextIndex(def + 1)) {
+				if (state.containsIndex(def) && defIndex.containsKey(defs.get(def).assign)) {
+					useDefs[use] = append(useDefs[use], useDefCount[use]++, def);
+					defUses[def] = append(defUses[def], defUseCount[def]++, use);
+				}
+			}
+		}
+	}
+
+	private void removeUse(int use) {
+		for (int i = 0; i < useDefCount[use]; i++) {
+			int def = useDefs[use][i];
+			defUseCount[def] = remove(defUses[def], defUseCount[def], use);
+		}
+		useDefs[use] = EMPTY;
+		useDefCount[use] = 0;
+		useIndex.remove(useVars.get(use));
+		useVars.set(use, null);
+	}
+
+	private void removeDef(int def) {
+		for (int i = 0; i < defUseCount[def]; i++) {
+			int use = defUses[def][i];
+			useDefCount[use] = remove(useDefs[use], useDefCount[use], def);
+		}
+		defUses[def] = EMPTY;
+		defUseCount[def] = 0;
+	}
+
+	private static int[] append(int[] array, int count, int value) {
+		if (count == array.length)
+			array = Arrays.copyOf(array, Math.max(4, count * 2));
+		array[count] = value;
+		return array;
+	}
+
+	/**
+	 * Removes <code>value</code> from the first <code>count</code> entries of
+	 * <code>array</code> by moving the last entry into its place, and returns
+	 * the new count.
+	 */
+	private static int remove(int[] array, int count, int value) {
+		for (int i = 0; i < count; i++) {
+			if (array[i] == value) {
+				array[i] = array[count - 1];
+				return count - 1;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the variables in <code>node</code>. If <code>usesOnly</code> is
+	 * set, the target of an assignment to a variable is left out.
+	 */
+	private static List<Var> collectVars(Ast node, final boolean usesOnly) {
+		final List<Var> vars = new ArrayList<Var>();
+		if (node == null)
+			return vars;
+		new AstVisitor<Void, Void>() {
+			@Override
+			public Void var(Var ast, Void arg) {
+				vars.add(ast);
+				return null;
+			}
+
+			@Override
+			public Void assign(Assign ast, Void arg) {
+				if (usesOnly && ast.left() instanceof Var)
+					return visit(ast.right(), arg);
+				return visitChildren(ast, arg);
+			}
+		}.visit(node, null);
+		return vars;
+	}
+
+	/**
+	 * An {@link AstRewriteVisitor} that reports all replacements it makes to
+	 * the chains. Statements and conditions must be rewritten through
+	 * {@link #rewrite(BasicBlock, Object)}, so that replacements can be
+	 * attributed to their statement.
+	 */
+	public static class Rewriter<A> extends AstRewriteVisitor<A> {
+
+		protected final DefUseChains chains;
+		private BasicBlock currentBlock;
+		private Stmt currentStmt;
+
+		public Rewriter(DefUseChains chains) {
+			this.chains = chains;
+		}
+
+		/**
+		 * Rewrites every statement and the condition of <code>block</code>.
+		 * A statement for which the visitor returns a different node is
+		 * replaced in the block.
+		 */
+		public void rewrite(BasicBlock block, A arg) {
+			currentBlock = block;
+			for (int i = 0; i < block.stmts.size(); i++) {
+				Stmt stmt = block.stmts.get(i);
+				currentStmt = stmt;
+				Ast replace = visit(stmt, arg);
+				if (replace != stmt) {
+					block.stmts.set(i, (Stmt) replace);
+					chains.replace(stmt, stmt, replace);
+				}
+			}
+			currentStmt = null;
+			if (block.condition != null) {
+				Ast replace = visit(block.condition, arg);
+				if (replace != block.condition) {
+					Ast old = block.condition;
+					block.condition = (Ast.Expr) replace;
+					chains.replaceInCondition(block, old, replace);
+				}
+			}
+			currentBlock = null;
+		}
+
+		/** Returns the block being rewritten, or <code>null</code>. */
+		protected BasicBlock currentBlock() {
+			return currentBlock;
+		}
+
+		/**
+		 * Returns the statement being rewritten, or <code>null</code> while
+		 * the condition is.
+		 */
+		protected Stmt currentStmt() {
+			return currentStmt;
+		}
+
+		@Override
+		protected void nodeReplaced(Ast oldNode, Ast newNode) {
+			if (currentStmt != null)
+				chains.replace(currentStmt, oldNode, newNode);
+			else if (currentBlock != null)
+				chains.replaceInCondition(currentBlock, oldNode, newNode);
+		}
+	}
+}
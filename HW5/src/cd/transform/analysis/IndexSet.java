@@ -0,0 +1,210 @@
+package cd.transform.analysis;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set over the elements of a {@link Numbering}, stored as a bit vector.
+ * Union, difference, intersection and equality between two sets sharing the
+ * same numbering are word-parallel operations on the underlying
+ * {@link BitSet}; all other operations fall back to the generic
+ * {@link AbstractSet} implementations.
+ * <p>
+ * Elements added to the set are numbered on the fly, so the numbering may
+ * keep growing while sets over it are in use.
+ */
+public class IndexSet<E> extends AbstractSet<E> {
+
+	private final Numbering<E> numbering;
+	private final BitSet bits;
+
+	public IndexSet(Numbering<E> numbering) {
+		this.numbering = numbering;
+		this.bits = new BitSet(numbering.size());
+	}
+
+	/**
+	 * Creates a copy of <code>other</code> over the same numbering.
+	 */
+	public IndexSet(IndexSet<E> other) {
+		this.numbering = other.numbering;
+		this.bits = (BitSet) other.bits.clone();
+	}
+
+	public Numbering<E> numbering() {
+		return numbering;
+	}
+
+	/**
+	 * Adds all elements of <code>other</code> to this set.
+	 */
+	public void unionWith(IndexSet<E> other) {
+		assert other.numbering == numbering;
+		bits.or(other.bits);
+	}
+
+	/**
+	 * Removes all elements of <code>other</code> from this set.
+	 */
+	public void subtract(IndexSet<E> other) {
+		assert other.numbering == numbering;
+		bits.andNot(other.bits);
+	}
+
+	/**
+	 * Removes all elements from this set which are not in
+	 * <code>other</code>.
+	 */
+	public void intersectWith(IndexSet<E> other) {
+		assert other.numbering == numbering;
+		bits.and(other.bits);
+	}
+
+	/**
+	 * Returns whether the element with index <code>index</code> is in this
+	 * set.
+	 */
+	public boolean containsIndex(int index) {
+		return bits.get(index);
+	}
+
+	/**
+	 * Returns the smallest index in this set that is at least
+	 * <code>from</code>, or <code>-1</code> if there is none.
+	 */
+	public int nextIndex(int from) {
+		return bits.nextSetBit(from);
+	}
+
+	public void addIndex(int index) {
+		bits.set(index);
+	}
+
+	public void removeIndex(int index) {
+		bits.clear(index);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		int index = numbering.indexOf(o);
+		return index >= 0 && bits.get(index);
+	}
+
+	@Override
+	public boolean add(E e) {
+		int index = numbering.number(e);
+		if (bits.get(index))
+			return false;
+		bits.set(index);
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		int index = numbering.indexOf(o);
+		if (index < 0 || !bits.get(index))
+			return false;
+		bits.clear(index);
+		return true;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends E> c) {
+		IndexSet<E> other = sameNumbering(c);
+		if (other == null)
+			return super.addAll(c);
+		int before = bits.cardinality();
+		unionWith(other);
+		return bits.cardinality() != before;
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		IndexSet<E> other = sameNumbering(c);
+		if (other == null)
+			return super.removeAll(c);
+		int before = bits.cardinality();
+		subtract(other);
+		return bits.cardinality() != before;
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		IndexSet<E> other = sameNumbering(c);
+		if (other == null)
+			return super.retainAll(c);
+		int before = bits.cardinality();
+		intersectWith(other);
+		return bits.cardinality() != before;
+	}
+
+	@Override
+	public void clear() {
+		bits.clear();
+	}
+
+	@Override
+	public int size() {
+		return bits.cardinality();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return bits.isEmpty();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		IndexSet<E> other = sameNumbering(o);
+		if (other != null)
+			return bits.equals(other.bits);
+		return super.equals(o);
+	}
+
+	@Override
+	public int hashCode() {
+		// Must agree with the Set contract, as IndexSets may be compared
+		// with other Set implementations.
+		return super.hashCode();
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+			private int next = bits.nextSetBit(0);
+			private int last = -1;
+
+			@Override
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			@Override
+			public E next() {
+				if (next < 0)
+					throw new NoSuchElementException();
+				last = next;
+				next = bits.nextSetBit(next + 1);
+				return numbering.get(last);
+			}
+
+			@Override
+			public void remove() {
+				if (last < 0)
+					throw new IllegalStateException();
+				bits.clear(last);
+				last = -1;
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	private IndexSet<E> sameNumbering(Object o) {
+		if (o instanceof IndexSet && ((IndexSet<?>) o).numbering == numbering)
+			return (IndexSet<E>) o;
+		return null;
+	}
+}
@@ -1,7 +1,10 @@
 package cd.transform.analysis;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -24,17 +27,36 @@ import cd.ir.Symbol.VariableSymbol;
 import cd.transform.NNLocalAnalysisVisitor;
 import cd.transform.NonNullAnalysisVisitor;
 import cd.transform.analysis.ReachingDefsAnalysis.Def;
+import cd.util.StronglyConnectedComponents;
+import cd.util.StronglyConnectedComponents.Edges;
 
 /**
  * A data-flow analysis that determines if a variable is guaranteed to be
  * non-<code>null</code> at a given point in the program. The state of this
  * analysis represents the set of non-<code>null</code> variables.
+ * <p>
+ * By default the analysis is intraprocedural and treats every method call
+ * result as possibly <code>null</code>. Given {@link NonNullSummaries}, it
+ * also uses the return values and dereferenced parameters of the callees.
  */
-public class NonNullAnalysis extends DataFlowAnalysis<Set<VariableSymbol>> {
+public class NonNullAnalysis extends DataFlowAnalysis<IndexSet<VariableSymbol>> {
 
-	// Before-sets for local analysis.
-	private Map<Stmt, Set<VariableSymbol>> stmtStates = new HashMap<Stmt, Set<VariableSymbol>>();
-	private Map<BasicBlock, Set<VariableSymbol>> stmtBeforeConditionStates = new HashMap<BasicBlock, Set<VariableSymbol>>();
+	/** Summaries of the called methods, or <code>null</code>. */
+	public final NonNullSummaries summaries;
+
+	// Dense numbering of the variables of the method, shared by all sets.
+	private final Numbering<VariableSymbol> variables = new Numbering<VariableSymbol>();
+
+	// Block containing each statement, used to answer per-statement queries.
+	private final Map<Stmt, BasicBlock> stmtBlocks = new HashMap<Stmt, BasicBlock>();
+
+	// Before-sets of the statements and the condition of the block that was
+	// replayed last. Per-statement facts are not stored for the whole method,
+	// but recomputed from the block's in-state on demand. Guarded by this,
+	// so that one analysis can be queried from several threads.
+	private BasicBlock replayedBlock;
+	private Map<Stmt, Set<VariableSymbol>> replayedStmtStates;
+	private Set<VariableSymbol> replayedBeforeConditionState;
 
 	// gen and kill sets
 	public Map<BasicBlock, Set<VariableSymbol>> gen = new HashMap<BasicBlock, Set<VariableSymbol>>();
@@ -47,10 +69,24 @@ public class NonNullAnalysis extends DataFlowAnalysis<Set<VariableSymbol>> {
 	public Map<BasicBlock, Map<Stmt, Map<VariableSymbol, VariableSymbol>>> toResolve = new HashMap<BasicBlock, Map<Stmt, Map<VariableSymbol, VariableSymbol>>>();
 
 	public NonNullAnalysis(MethodDecl method) {
+		this(method, null);
+	}
+
+	/**
+	 * Analyzes <code>method</code> using the facts about called methods in
+	 * <code>summaries</code>, which may be <code>null</code>.
+	 */
+	public NonNullAnalysis(MethodDecl method, NonNullSummaries summaries) {
 		super(method.cfg);
+		this.summaries = summaries;
 		if (method.cfg == null)
 			throw new IllegalArgumentException("method is missing CFG");
 
+		for (VariableSymbol param : method.sym.parameters)
+			variables.number(param);
+		for (VariableSymbol local : method.sym.locals.values())
+			variables.number(local);
+
 		for (BasicBlock block : cfg.allBlocks) {
 
 			// Visit statements of each block and generate gen, kill and
@@ -58,12 +94,12 @@ public class NonNullAnalysis extends DataFlowAnalysis<Set<VariableSymbol>> {
 			NonNullAnalysisVisitor visitor = new NonNullAnalysisVisitor(block, this);
 
 			// Add to gen set of this block.
-			Set<VariableSymbol> gen = new HashSet<VariableSymbol>();
+			Set<VariableSymbol> gen = newSet();
 			gen.addAll(visitor.gen.values());
 			this.gen.put(block, gen);
 
 			// Add to kill set of this block.
-			Set<VariableSymbol> kill = new HashSet<VariableSymbol>();
+			Set<VariableSymbol> kill = newSet();
 			kill.addAll(visitor.kill.values());
 			this.kill.put(block, kill);
 
@@ -72,54 +108,63 @@ public class NonNullAnalysis extends DataFlowAnalysis<Set<VariableSymbol>> {
 				this.toResolve.put(block, visitor.unresolvedStmtsInBlock.get(block));
 			}
 
-			// Get all unresolved variables from all precedessors.
-			Set<VariableSymbol> undefined = getUndefinedInPrecedessors(block, new HashSet<VariableSymbol>(),
-					new HashSet<BasicBlock>(), true);
-
-			this.undefined.put(block, undefined);
+			for (Stmt stmt : block.stmts)
+				stmtBlocks.put(stmt, block);
 		}
 
+		// Get all unresolved variables from all precedessors.
+		computeUndefinedInPredecessors();
+
 		// Do the global and local analysis.
 		iterate();
 	}
 
 	/**
-	 * Recursively loop through all precedessors and get their unresolved
-	 * variables.
-	 * 
-	 * @param block
-	 * @param undefined
-	 * @param visited
-	 * @param first
-	 * @return
+	 * Computes, for every block, the unresolved variables of all its
+	 * (transitive) predecessors. Blocks of one strongly connected component
+	 * reach each other and therefore share one set; components are visited
+	 * predecessors first, so a single pass over the graph suffices.
 	 */
-	protected Set<VariableSymbol> getUndefinedInPrecedessors(BasicBlock block, Set<VariableSymbol> undefined,
-			Set<BasicBlock> visited, boolean first) {
-
-		visited.add(block);
-
-		if (!first) {
-			if (toResolve.get(block) != null) {
-				for (Map.Entry<Stmt, Map<VariableSymbol, VariableSymbol>> unresEntry : toResolve.get(block)
-						.entrySet()) {
-					for (Map.Entry<VariableSymbol, VariableSymbol> entry : unresEntry.getValue().entrySet()) {
-						undefined.add(entry.getKey());
-						undefined.add(entry.getValue());
+	private void computeUndefinedInPredecessors() {
+		Edges<BasicBlock> predecessors = new Edges<BasicBlock>() {
+			public Iterable<BasicBlock> of(BasicBlock block) {
+				return block.predecessors;
+			}
+		};
+
+		for (List<BasicBlock> component : StronglyConnectedComponents.compute(cfg.allBlocks, predecessors)) {
+			Set<VariableSymbol> undefined = newSet();
+			for (BasicBlock block : component) {
+				for (BasicBlock precedessor : block.predecessors) {
+					// Members of this component are not yet in the map.
+					Set<VariableSymbol> inherited = this.undefined.get(precedessor);
+					if (inherited != null) {
+						undefined.addAll(inherited);
+						addUnresolved(precedessor, undefined);
 					}
 				}
 			}
+			if (StronglyConnectedComponents.isCyclic(component, predecessors)) {
+				for (BasicBlock block : component)
+					addUnresolved(block, undefined);
+			}
+			for (BasicBlock block : component)
+				this.undefined.put(block, undefined);
 		}
+	}
 
-		for (BasicBlock precedessor : block.predecessors) {
-
-			if (visited.contains(precedessor)) {
-				break;
+	/**
+	 * Adds the variables of all unresolved statements of <code>block</code>
+	 * to <code>undefined</code>.
+	 */
+	private void addUnresolved(BasicBlock block, Set<VariableSymbol> undefined) {
+		for (Map<VariableSymbol, VariableSymbol> unresolved : toResolve.get(block).values()) {
+			for (Map.Entry<VariableSymbol, VariableSymbol> entry : unresolved.entrySet()) {
+				undefined.add(entry.getKey());
+				if (entry.getValue() != null)
+					undefined.add(entry.getValue());
 			}
-
-			undefined.addAll(getUndefinedInPrecedessors(precedessor, undefined, visited, false));
 		}
-
-		return undefined;
 	}
 
 	/**
@@ -129,20 +174,16 @@ public class NonNullAnalysis extends DataFlowAnalysis<Set<VariableSymbol>> {
 	 * @param block
 	 * @return
 	 */
-	private Set<VariableSymbol> doLocalBlockAnalysis(BasicBlock block, Set<VariableSymbol> out) {
+	private IndexSet<VariableSymbol> doLocalBlockAnalysis(BasicBlock block, IndexSet<VariableSymbol> out) {
 
-		// in-state of the block
-		Set<VariableSymbol> state = inStateOf(block);
+		// in-state of the block; copied so that the statement states can be
+		// replayed from it later.
+		Set<VariableSymbol> state = new IndexSet<VariableSymbol>(inStateOf(block));
 
 		// Local analysis.
-		NNLocalAnalysisVisitor visitor = new NNLocalAnalysisVisitor(block, state, out, this);
-
-		// Set of variables that are guaranteed to be non-null before
-		// each statement.
-		stmtStates.putAll(visitor.stmtStates);
-
-		// The latest state is the one before the condition statement.
-		stmtBeforeConditionStates.put(block, visitor.state);
+		NNLocalAnalysisVisitor visitor = new NNLocalAnalysisVisitor(block, state, out, this, null);
+		if (replayedBlock == block)
+			replayedBlock = null;
 
 		// Update statements with unresolved variables in this block.
 		Map<Stmt, Map<VariableSymbol, VariableSymbol>> unresolved = visitor.unresolved;
@@ -152,23 +193,63 @@ public class NonNullAnalysis extends DataFlowAnalysis<Set<VariableSymbol>> {
 		return out;
 	}
 
+	/**
+	 * Returns whether the result of <code>call</code> is known to be
+	 * non-<code>null</code>.
+	 */
+	public boolean returnsNonNull(MethodCallExpr call) {
+		return summaries != null && summaries.returnsNonNull(call);
+	}
+
+	/**
+	 * Returns the variables passed to <code>call</code> which are known to be
+	 * non-<code>null</code> once it has returned, because the callee
+	 * dereferences them.
+	 */
+	public List<VariableSymbol> dereferencedArguments(MethodCallExpr call) {
+		List<VariableSymbol> result = new ArrayList<VariableSymbol>();
+		if (summaries == null)
+			return result;
+		List<Expr> arguments = call.argumentsWithoutReceiver();
+		for (int i = 0; i < arguments.size(); i++)
+			if (arguments.get(i) instanceof Var && summaries.dereferencesArgument(call, i))
+				result.add(((Var) arguments.get(i)).sym);
+		return result;
+	}
+
+	/**
+	 * Returns a new, empty set over the variables of this method.
+	 */
+	private IndexSet<VariableSymbol> newSet() {
+		return new IndexSet<VariableSymbol>(variables);
+	}
+
+	/**
+	 * The transfer function resolves variables through the gen and kill sets
+	 * of the predecessors and updates {@link #undefined} and
+	 * {@link #toResolve}, so it does not only depend on the in-state.
+	 */
+	@Override
+	protected boolean isLocal() {
+		return false;
+	}
+
 	@Override
-	protected Set<VariableSymbol> initialState() {
+	protected IndexSet<VariableSymbol> initialState() {
 
-		return new HashSet<VariableSymbol>();
+		return newSet();
 	}
 
 	@Override
-	protected Set<VariableSymbol> startState() {
+	protected IndexSet<VariableSymbol> startState() {
 
-		return new HashSet<VariableSymbol>();
+		return newSet();
 	}
 
 	@Override
-	protected Set<VariableSymbol> transferFunction(BasicBlock block, Set<VariableSymbol> inState) {
+	protected IndexSet<VariableSymbol> transferFunction(BasicBlock block, IndexSet<VariableSymbol> inState) {
 
-		Set<VariableSymbol> out = new HashSet<VariableSymbol>();
-		out.addAll(inState);
+		IndexSet<VariableSymbol> out = new IndexSet<VariableSymbol>(inState);
 
 		// Remove all variables in the kill set.
 		out.removeAll(kill.get(block));
@@ -177,7 +258,7 @@ public class NonNullAnalysis extends DataFlowAnalysis<Set<VariableSymbol>> {
 		Set<VariableSymbol> KillOfBlock = kill.get(block);
 
 		// Get unresolved variable symbols (not in gen or kill).
-		Map<Stmt, Map<VariableSymbol, VariableSymbol>> unresolved = new HashMap<Stmt, Map<VariableSymbol, VariableSymbol>>(
+		Map<Stmt, Map<VariableSymbol, VariableSymbol>> unresolved = new LinkedHashMap<Stmt, Map<VariableSymbol, VariableSymbol>>(
 				toResolve.get(block));
 		if (unresolved != null) {
 
@@ -237,7 +318,7 @@ public class NonNullAnalysis extends DataFlowAnalysis<Set<VariableSymbol>> {
 		}
 
 		// GEN
-		out.addAll(new HashSet(gen.get(block)));
+		out.addAll(gen.get(block));
 
 		// Do local analysis for this block.
 		out = doLocalBlockAnalysis(block, out);
@@ -286,16 +367,16 @@ public class NonNullAnalysis extends DataFlowAnalysis<Set<VariableSymbol>> {
 	}
 
 	@Override
-	protected Set<VariableSymbol> join(Set<Set<VariableSymbol>> states) {
-		Set<VariableSymbol> out = new HashSet<VariableSymbol>();
+	protected IndexSet<VariableSymbol> join(Set<IndexSet<VariableSymbol>> states) {
+		IndexSet<VariableSymbol> out = newSet();
 
 		// Compute intersection.
 		if (0 < states.size()) {
 
-			out.addAll((Set<VariableSymbol>) states.toArray()[0]);
+			out.unionWith(states.iterator().next());
 
-			for (Set<VariableSymbol> set : states) {
-				out.retainAll(set);
+			for (IndexSet<VariableSymbol> set : states) {
+				out.intersectWith(set);
 			}
 		}
 		return out;
@@ -305,16 +386,43 @@ public class NonNullAnalysis extends DataFlowAnalysis<Set<VariableSymbol>> {
 	 * Returns the set of variables that are guaranteed to be
 	 * non-<code>null</code> before the given statement.
 	 */
-	public Set<VariableSymbol> nonNullBefore(Stmt stmt) {
-		return stmtStates.get(stmt);
+	public synchronized Set<VariableSymbol> nonNullBefore(Stmt stmt) {
+		BasicBlock block = stmtBlocks.get(stmt);
+		if (block == null)
+			return null;
+		replayLocalAnalysis(block);
+		return replayedStmtStates.get(stmt);
 	}
 
 	/**
 	 * Returns the set of variables that are guaranteed to be
 	 * non-<code>null</code> before the condition of the given basic block.
 	 */
-	public Set<VariableSymbol> nonNullBeforeCondition(BasicBlock block) {
-		return stmtBeforeConditionStates.get(block);
+	public synchronized Set<VariableSymbol> nonNullBeforeCondition(BasicBlock block) {
+		replayLocalAnalysis(block);
+		return replayedBeforeConditionState;
+	}
+
+	/**
+	 * Reruns the local analysis of <code>block</code> from its in-state to
+	 * recover the states before its statements and condition. The result is
+	 * kept until another block is replayed, so querying all statements of a
+	 * block in turn costs a single replay. The replay visits the same
+	 * variables as {@link #iterate()} did, so it never grows the numbering
+	 * shared with the published in- and out-states.
+	 */
+	private void replayLocalAnalysis(BasicBlock block) {
+		if (replayedBlock == block)
+			return;
+
+		Set<VariableSymbol> state = new IndexSet<VariableSymbol>(inStateOf(block));
+		Map<Stmt, Set<VariableSymbol>> stmtStates = new HashMap<Stmt, Set<VariableSymbol>>();
+		new NNLocalAnalysisVisitor(block, state, newSet(), this, stmtStates);
+
+		replayedStmtStates = stmtStates;
+		// The latest state is the one before the condition statement.
+		replayedBeforeConditionState = state;
+		replayedBlock = block;
 	}
 
 }
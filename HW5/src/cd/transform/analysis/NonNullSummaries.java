@@ -0,0 +1,262 @@
+package cd.transform.analysis;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.Cast;
+import cd.ir.Ast.ClassDecl;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.Field;
+import cd.ir.Ast.Index;
+import cd.ir.Ast.MethodCallExpr;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NewArray;
+import cd.ir.Ast.NewObject;
+import cd.ir.Ast.NullCheck;
+import cd.ir.Ast.ReturnStmt;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.ThisRef;
+import cd.ir.Ast.Var;
+import cd.ir.AstVisitor;
+import cd.ir.BasicBlock;
+import cd.ir.Symbol.MethodSymbol;
+import cd.ir.Symbol.VariableSymbol;
+
+/**
+ * Interprocedural facts for the {@link NonNullAnalysis}. For every method, a
+ * summary records whether it always returns a non-<code>null</code> value and
+ * which of its parameters it dereferences on every path, so that the
+ * corresponding arguments are known to be non-<code>null</code> once a call
+ * returns.
+ * <p>
+ * Summaries are computed bottom-up over the strongly connected components of
+ * the {@link CallGraph}. Within a recursive component, all summaries start
+ * optimistic and are recomputed until none of them changes. A call site
+ * combines the summaries of all methods it may dispatch to.
+ */
+public class NonNullSummaries {
+
+	private static class Summary {
+		boolean returnsNonNull;
+		final BitSet dereferenced = new BitSet();
+
+		Summary(boolean returnsNonNull, int dereferenced) {
+			this.returnsNonNull = returnsNonNull;
+			this.dereferenced.set(0, dereferenced);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Summary))
+				return false;
+			Summary other = (Summary) obj;
+			return returnsNonNull == other.returnsNonNull && dereferenced.equals(other.dereferenced);
+		}
+
+		@Override
+		public int hashCode() {
+			return dereferenced.hashCode() * 2 + (returnsNonNull ? 1 : 0);
+		}
+	}
+
+	private final CallGraph callGraph;
+	private final Map<MethodSymbol, Summary> summaries = new HashMap<MethodSymbol, Summary>();
+
+	public NonNullSummaries(List<? extends ClassDecl> astRoots) {
+		this(new CallGraph(astRoots));
+	}
+
+	public NonNullSummaries(CallGraph callGraph) {
+		this.callGraph = callGraph;
+
+		for (List<MethodDecl> component : callGraph.bottomUpComponents()) {
+			if (!callGraph.isRecursive(component)) {
+				MethodDecl method = component.get(0);
+				summaries.put(method.sym, summarize(method));
+				continue;
+			}
+
+			for (MethodDecl method : component)
+				summaries.put(method.sym, new Summary(true, method.sym.parameters.size()));
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+				for (MethodDecl method : component) {
+					Summary summary = summarize(method);
+					if (!summary.equals(summaries.get(method.sym))) {
+						summaries.put(method.sym, summary);
+						changed = true;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns whether every method <code>call</code> may dispatch to always
+	 * returns a non-<code>null</code> value.
+	 */
+	public boolean returnsNonNull(MethodCallExpr call) {
+		for (MethodSymbol target : callGraph.targetsOf(call)) {
+			Summary summary = summaries.get(target);
+			if (summary == null || !summary.returnsNonNull)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether every method <code>call</code> may dispatch to
+	 * dereferences its parameter number <code>index</code> (not counting the
+	 * receiver) on every path, i.e., whether the argument is
+	 * non-<code>null</code> after the call has returned.
+	 */
+	public boolean dereferencesArgument(MethodCallExpr call, int index) {
+		for (MethodSymbol target : callGraph.targetsOf(call)) {
+			Summary summary = summaries.get(target);
+			if (summary == null || !summary.dereferenced.get(index))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Computes the summary of <code>method</code> from the current summaries
+	 * of the methods it calls.
+	 */
+	private Summary summarize(MethodDecl method) {
+		Summary summary = new Summary(true, 0);
+
+		NonNullAnalysis nonNull = new NonNullAnalysis(method, this);
+		for (BasicBlock block : method.cfg.allBlocks) {
+			for (Stmt stmt : block.stmts) {
+				if (stmt instanceof ReturnStmt) {
+					Expr value = ((ReturnStmt) stmt).arg();
+					if (value != null && !isNonNull(value, nonNull.nonNullBefore(stmt)))
+						summary.returnsNonNull = false;
+					// The rest of the block is unreachable.
+					break;
+				}
+			}
+		}
+
+		DereferencedParameters dereferenced = new DereferencedParameters(method);
+		Set<VariableSymbol> atExit = dereferenced.inStateOf(method.cfg.end);
+		List<VariableSymbol> parameters = method.sym.parameters;
+		for (int i = 0; i < parameters.size(); i++)
+			if (atExit.contains(parameters.get(i)))
+				summary.dereferenced.set(i);
+		return summary;
+	}
+
+	private boolean isNonNull(Expr value, Set<VariableSymbol> nonNull) {
+		if (value instanceof NewObject || value instanceof NewArray || value instanceof ThisRef)
+			return true;
+		if (value instanceof Var)
+			return nonNull.contains(((Var) value).sym);
+		if (value instanceof Cast)
+			return isNonNull(((Cast) value).arg(), nonNull);
+		if (value instanceof MethodCallExpr)
+			return returnsNonNull((MethodCallExpr) value);
+		return false;
+	}
+
+	/**
+	 * Must-analysis of the parameters whose incoming value has been
+	 * dereferenced on every path to a program point. Parameters that are
+	 * assigned anywhere in the method are never considered.
+	 */
+	private class DereferencedParameters extends DataFlowAnalysis<IndexSet<VariableSymbol>> {
+
+		private final Numbering<VariableSymbol> parameters = new Numbering<VariableSymbol>();
+		private final IndexSet<VariableSymbol> candidates;
+
+		DereferencedParameters(MethodDecl method) {
+			super(method.cfg);
+			for (VariableSymbol param : method.sym.parameters)
+				parameters.number(param);
+			candidates = new IndexSet<VariableSymbol>(parameters);
+			candidates.addAll(method.sym.parameters);
+			for (BasicBlock block : cfg.allBlocks)
+				for (Stmt stmt : block.stmts)
+					if (stmt instanceof Assign && ((Assign) stmt).left() instanceof Var)
+						candidates.remove(((Var) ((Assign) stmt).left()).sym);
+			iterate();
+		}
+
+		@Override
+		protected IndexSet<VariableSymbol> initialState() {
+			return new IndexSet<VariableSymbol>(candidates);
+		}
+
+		@Override
+		protected IndexSet<VariableSymbol> startState() {
+			return new IndexSet<VariableSymbol>(parameters);
+		}
+
+		@Override
+		protected IndexSet<VariableSymbol> transferFunction(BasicBlock block, IndexSet<VariableSymbol> inState) {
+			final IndexSet<VariableSymbol> out = new IndexSet<VariableSymbol>(inState);
+			AstVisitor<Void, Void> visitor = new AstVisitor<Void, Void>() {
+				@Override
+				public Void field(Field ast, Void arg) {
+					dereference(ast.arg());
+					return visitChildren(ast, arg);
+				}
+
+				@Override
+				public Void index(Index ast, Void arg) {
+					dereference(ast.left());
+					return visitChildren(ast, arg);
+				}
+
+				@Override
+				public Void nullCheck(NullCheck ast, Void arg) {
+					visitChildren(ast, arg);
+					dereference(ast.arg());
+					return null;
+				}
+
+				@Override
+				public Void methodCall(MethodCallExpr ast, Void arg) {
+					visitChildren(ast, arg);
+					dereference(ast.receiver());
+					List<Expr> arguments = ast.argumentsWithoutReceiver();
+					for (int i = 0; i < arguments.size(); i++)
+						if (dereferencesArgument(ast, i))
+							dereference(arguments.get(i));
+					return null;
+				}
+
+				private void dereference(Expr expr) {
+					if (expr instanceof Var && candidates.contains(((Var) expr).sym))
+						out.add(((Var) expr).sym);
+				}
+			};
+
+			for (Stmt stmt : block.stmts) {
+				visitor.visit(stmt, null);
+				if (stmt instanceof ReturnStmt)
+					return out;
+			}
+			if (block.condition != null)
+				visitor.visit(block.condition, null);
+			return out;
+		}
+
+		@Override
+		protected IndexSet<VariableSymbol> join(Set<IndexSet<VariableSymbol>> states) {
+			IndexSet<VariableSymbol> out = new IndexSet<VariableSymbol>(parameters);
+			if (!states.isEmpty()) {
+				out.unionWith(states.iterator().next());
+				for (IndexSet<VariableSymbol> state : states)
+					out.intersectWith(state);
+			}
+			return out;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package cd.transform.analysis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns dense, consecutive indices starting at 0 to the elements of some
+ * universe (e.g. all definitions or all variables of one method), so that
+ * sets over that universe can be stored as bit vectors. Elements are
+ * numbered the first time they are seen and keep their index for the
+ * lifetime of the numbering.
+ *
+ * @see IndexSet
+ */
+public class Numbering<E> {
+
+	private final Map<E, Integer> indices = new HashMap<E, Integer>();
+	private final List<E> elements = new ArrayList<E>();
+
+	/**
+	 * Returns the index of <code>element</code>, numbering it if it has not
+	 * been seen before.
+	 */
+	public int number(E element) {
+		Integer index = indices.get(element);
+		if (index == null) {
+			index = elements.size();
+			indices.put(element, index);
+			elements.add(element);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the index of <code>element</code>, or <code>-1</code> if it
+	 * has not been numbered.
+	 */
+	public int indexOf(Object element) {
+		Integer index = indices.get(element);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Returns the element with index <code>index</code>.
+	 */
+	public E get(int index) {
+		return elements.get(index);
+	}
+
+	/**
+	 * Returns the number of elements numbered so far.
+	 */
+	public int size() {
+		return elements.size();
+	}
+}
@@ -0,0 +1,71 @@
+package cd.transform.analysis;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The set of analyses whose results are still valid after a transformation,
+ * identified by the class of the analysis.
+ * <p>
+ * A transformation of a single method only states which results for that
+ * method it preserved. Whole-program results remain valid unless it
+ * {@link #abandoning abandons} them, e.g. because it added calls the
+ * {@link CallGraph} does not know about.
+ *
+ * @see AnalysisManager#invalidate(cd.ir.Ast.MethodDecl, PreservedAnalyses)
+ */
+public final class PreservedAnalyses {
+
+	private static final PreservedAnalyses ALL = new PreservedAnalyses(true, Collections.<Class<?>> emptySet(),
+			Collections.<Class<?>> emptySet());
+	private static final PreservedAnalyses NONE = new PreservedAnalyses(false, Collections.<Class<?>> emptySet(),
+			Collections.<Class<?>> emptySet());
+
+	private final boolean all;
+	private final Set<Class<?>> kinds;
+	private final Set<Class<?>> abandoned;
+
+	private PreservedAnalyses(boolean all, Set<Class<?>> kinds, Set<Class<?>> abandoned) {
+		this.all = all;
+		this.kinds = kinds;
+		this.abandoned = abandoned;
+	}
+
+	/** For transformations that did not change anything. */
+	public static PreservedAnalyses all() {
+		return ALL;
+	}
+
+	public static PreservedAnalyses none() {
+		return NONE;
+	}
+
+	public static PreservedAnalyses of(Class<?>... kinds) {
+		return new PreservedAnalyses(false, new HashSet<Class<?>>(Arrays.asList(kinds)), Collections.<Class<?>> emptySet());
+	}
+
+	/**
+	 * Returns these preserved analyses without the whole-program analyses
+	 * <code>kinds</code>, which the transformation of a method made invalid.
+	 */
+	public PreservedAnalyses abandoning(Class<?>... kinds) {
+		Set<Class<?>> result = new HashSet<Class<?>>(abandoned);
+		result.addAll(Arrays.asList(kinds));
+		return new PreservedAnalyses(all, this.kinds, result);
+	}
+
+	public boolean preserves(Class<?> kind) {
+		return (all || kinds.contains(kind)) && !abandoned.contains(kind);
+	}
+
+	public boolean preservesAll() {
+		return all && abandoned.isEmpty();
+	}
+
+	/** Returns the whole-program analyses explicitly made invalid. */
+	public Set<Class<?>> abandoned() {
+		return Collections.unmodifiableSet(abandoned);
+	}
+}
@@ -1,7 +1,6 @@
 package cd.transform.analysis;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -19,10 +18,16 @@ import cd.util.debug.AstOneLine;
 
 /**
  * Computes the sets of reaching definitions for each basic block.
+ * <p>
+ * All definitions of the method are numbered once up front, so that gen,
+ * kill, in- and out-sets are {@link IndexSet bit vectors} over the same
+ * {@link Numbering}.
  */
-public class ReachingDefsAnalysis extends DataFlowAnalysis<Set<Def>> {
-	private Map<BasicBlock, Set<Def>> gen = new HashMap<BasicBlock, Set<Def>>();
-	private Map<BasicBlock, Set<Def>> kill = new HashMap<BasicBlock, Set<Def>>();
+public class ReachingDefsAnalysis extends DataFlowAnalysis<IndexSet<Def>> {
+	private final Numbering<Def> defs = new Numbering<Def>();
+	private final Map<String, IndexSet<Def>> defsOfVar = new HashMap<String, IndexSet<Def>>();
+	private Map<BasicBlock, IndexSet<Def>> gen = new HashMap<BasicBlock, IndexSet<Def>>();
+	private Map<BasicBlock, IndexSet<Def>> kill = new HashMap<BasicBlock, IndexSet<Def>>();
 
 	/**
 	 * Perform reaching definitions analysis.
@@ -32,73 +37,89 @@ public class ReachingDefsAnalysis extends DataFlowAnalysis<Set<Def>> {
 	 */
 	public ReachingDefsAnalysis(ControlFlowGraph cfg) {
 		super(cfg);
-		// Figure out gens.
+
+		// Number all definitions and index them by their target variable.
+		Map<BasicBlock, Map<String, Def>> lastDefs = new HashMap<BasicBlock, Map<String, Def>>();
 		for (BasicBlock block : cfg.allBlocks) {
 
 			// Get all assignment statements.
-			Map<String, Def> defs = new HashMap<String, Def>();
+			Map<String, Def> blockDefs = new HashMap<String, Def>();
 			for (Stmt stmt : block.stmts) {
 				if (stmt instanceof Assign && ((Assign) stmt).left() instanceof Var) {
 					Def def = new Def((Assign) stmt);
+					defs.number(def);
+
+					IndexSet<Def> varDefs = defsOfVar.get(def.target);
+					if (varDefs == null) {
+						varDefs = new IndexSet<Def>(defs);
+						defsOfVar.put(def.target, varDefs);
+					}
+					varDefs.add(def);
 
 					// Replaces all previous definitions if they exist.
-					defs.put(def.target, def);
+					blockDefs.put(def.target, def);
 				}
 			}
-
-			Set<Def> gen = new HashSet<Def>();
-			gen.addAll(defs.values());
-			this.gen.put(block, gen);
+			lastDefs.put(block, blockDefs);
 		}
-		// Figure out kills.
-
-		// TODO Kills from own block? e.g. x = 1; x = 2;
 
+		// Figure out gens and kills. A block kills every definition of the
+		// variables it assigns; its own last definitions are re-added by
+		// the gen set.
 		for (BasicBlock block : cfg.allBlocks) {
-			Set<Def> kill = new HashSet<Def>();
-			for (Def def : gen.get(block)) {
-
-				// Check if definition with same target in other blocks exist.
-				for (BasicBlock otherBlock : cfg.allBlocks) {
-					if (otherBlock != block) {
-						for (Def otherDef : gen.get(otherBlock)) {
-							if (def.target.equals(otherDef.target)) {
-								kill.add(otherDef);
-							}
-						}
-					}
-				}
+			IndexSet<Def> gen = new IndexSet<Def>(defs);
+			IndexSet<Def> kill = new IndexSet<Def>(defs);
+			for (Def def : lastDefs.get(block).values()) {
+				gen.add(def);
+				kill.unionWith(defsOfVar.get(def.target));
 			}
+			this.gen.put(block, gen);
 			this.kill.put(block, kill);
 		}
 
 		iterate();
 	}
 
+	/**
+	 * Returns the numbering of all definitions of the method. The in- and
+	 * out-states are sets over this numbering.
+	 */
+	public Numbering<Def> definitions() {
+		return defs;
+	}
+
+	/**
+	 * Returns all definitions of the variable <code>name</code>, or an empty
+	 * set if it is never assigned.
+	 */
+	public IndexSet<Def> definitionsOf(String name) {
+		IndexSet<Def> varDefs = defsOfVar.get(name);
+		return varDefs != null ? varDefs : new IndexSet<Def>(defs);
+	}
+
 	@Override
-	protected Set<Def> initialState() {
-		return new HashSet<Def>();
+	protected IndexSet<Def> initialState() {
+		return new IndexSet<Def>(defs);
 	}
 
 	@Override
-	protected Set<Def> startState() {
-		return new HashSet<Def>();
+	protected IndexSet<Def> startState() {
+		return new IndexSet<Def>(defs);
 	}
 
 	@Override
-	protected Set<Def> transferFunction(BasicBlock block, Set<Def> inState) {
-		Set<Def> out = new HashSet<Def>();
-		out.addAll(inState);
-		out.removeAll(kill.get(block));
-		out.addAll(gen.get(block));
+	protected IndexSet<Def> transferFunction(BasicBlock block, IndexSet<Def> inState) {
+		IndexSet<Def> out = new IndexSet<Def>(inState);
+		out.subtract(kill.get(block));
+		out.unionWith(gen.get(block));
 		return out;
 	}
 
 	@Override
-	protected Set<Def> join(Set<Set<Def>> states) {
-		Set<Def> joined = new HashSet<Def>();
-		for (Set<Def> state : states) {
-			joined.addAll(state);
+	protected IndexSet<Def> join(Set<IndexSet<Def>> states) {
+		IndexSet<Def> joined = new IndexSet<Def>(defs);
+		for (IndexSet<Def> state : states) {
+			joined.unionWith(state);
 		}
 		return joined;
 	}
@@ -0,0 +1,268 @@
+package cd.transform.analysis;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cd.ir.Ast;
+import cd.ir.Ast.Assign;
+import cd.ir.Ast.BinaryOp;
+import cd.ir.Ast.BinaryOp.BOp;
+import cd.ir.Ast.BuiltInRead;
+import cd.ir.Ast.BuiltInWrite;
+import cd.ir.Ast.BuiltInWriteln;
+import cd.ir.Ast.Cast;
+import cd.ir.Ast.ClassDecl;
+import cd.ir.Ast.Expr;
+import cd.ir.Ast.Field;
+import cd.ir.Ast.Index;
+import cd.ir.Ast.IntConst;
+import cd.ir.Ast.MethodCallExpr;
+import cd.ir.Ast.MethodDecl;
+import cd.ir.Ast.NewArray;
+import cd.ir.Ast.NewObject;
+import cd.ir.Ast.NullCheck;
+import cd.ir.Ast.Stmt;
+import cd.ir.Ast.ThisRef;
+import cd.ir.AstVisitor;
+import cd.ir.BasicBlock;
+import cd.ir.Symbol.MethodSymbol;
+
+/**
+ * Summarizes which side effects each method may have, so that
+ * transformations can tell whether a call may be removed, merged with an
+ * identical one or moved. Assignments to locals and parameters are not
+ * effects, as they cannot be observed by the caller.
+ * <p>
+ * Summaries are computed bottom-up over the strongly connected components of
+ * the {@link CallGraph}. Within a recursive component, all summaries start
+ * out with just {@link Effect#MAY_LOOP} and grow until none of them
+ * changes. A call site combines the summaries of all methods it may
+ * dispatch to.
+ */
+public class SideEffectSummaries {
+
+	/** The kinds of effects a method or statement may have. */
+	public enum Effect {
+		/** Reads a field or array element. */
+		READS_FIELDS,
+		/** Writes a field or array element. */
+		WRITES_FIELDS,
+		/** Creates an object or array, whose identity is observable. */
+		ALLOCATES,
+		/** Reads input or writes output. */
+		IO,
+		/**
+		 * May stop the program with an error, e.g. by dereferencing
+		 * <code>null</code> or dividing by zero.
+		 */
+		MAY_TRAP,
+		/** May never return, because of a loop or recursion. */
+		MAY_LOOP
+	}
+
+	private final CallGraph callGraph;
+	private final Map<MethodSymbol, Set<Effect>> summaries = new HashMap<MethodSymbol, Set<Effect>>();
+
+	public SideEffectSummaries(List<? extends ClassDecl> astRoots) {
+		this(new CallGraph(astRoots));
+	}
+
+	public SideEffectSummaries(CallGraph callGraph) {
+		this.callGraph = callGraph;
+
+		for (List<MethodDecl> component : callGraph.bottomUpComponents()) {
+			if (!callGraph.isRecursive(component)) {
+				MethodDecl method = component.get(0);
+				summaries.put(method.sym, summarize(method));
+				continue;
+			}
+
+			for (MethodDecl method : component)
+				summaries.put(method.sym, EnumSet.of(Effect.MAY_LOOP));
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+				for (MethodDecl method : component) {
+					Set<Effect> summary = summarize(method);
+					summary.add(Effect.MAY_LOOP);
+					if (!summary.equals(summaries.get(method.sym))) {
+						summaries.put(method.sym, summary);
+						changed = true;
+					}
+				}
+			}
+		}
+	}
+
+	/** Returns the effects a call of <code>method</code> may have. */
+	public Set<Effect> effectsOf(MethodSymbol method) {
+		Set<Effect> summary = summaries.get(method);
+		return Collections.unmodifiableSet(summary != null ? summary : EnumSet.allOf(Effect.class));
+	}
+
+	/**
+	 * Returns the effects evaluating <code>ast</code> may have, including
+	 * those of the methods it calls. <code>ast</code> is a statement or an
+	 * expression of a control flow graph.
+	 */
+	public Set<Effect> effectsOf(Ast ast) {
+		Collector collector = new Collector();
+		collector.visit(ast, null);
+		return Collections.unmodifiableSet(collector.effects);
+	}
+
+	/**
+	 * Returns whether a call of <code>method</code> has no effects at all:
+	 * its result depends only on its arguments, and the call may be removed
+	 * if the result is unused.
+	 */
+	public boolean isPure(MethodSymbol method) {
+		return effectsOf(method).isEmpty();
+	}
+
+	/**
+	 * Returns whether evaluating the expression <code>ast</code> may be
+	 * skipped if its value is not used: it may read fields and allocate
+	 * objects, but has no other effect.
+	 */
+	public boolean isRemovable(Ast ast) {
+		Collector collector = new Collector();
+		collector.visit(ast, null);
+		collector.effects.remove(Effect.READS_FIELDS);
+		collector.effects.remove(Effect.ALLOCATES);
+		return collector.effects.isEmpty();
+	}
+
+	/**
+	 * Computes the summary of <code>method</code> from the current summaries
+	 * of the methods it calls.
+	 */
+	private Set<Effect> summarize(MethodDecl method) {
+		Collector collector = new Collector();
+		List<BasicBlock> order = method.cfg.reversePostOrder();
+		int[] position = new int[method.cfg.count()];
+		for (int i = 0; i < order.size(); i++)
+			position[order.get(i).index] = i;
+		for (BasicBlock block : order) {
+			for (Stmt stmt : block.stmts)
+				collector.visit(stmt, null);
+			if (block.condition != null)
+				collector.visit(block.condition, null);
+			// An edge going backwards in reverse postorder closes a loop.
+			for (BasicBlock succ : block.successors)
+				if (position[succ.index] <= position[block.index])
+					collector.effects.add(Effect.MAY_LOOP);
+		}
+		return collector.effects;
+	}
+
+	/** Collects the effects of the statements and expressions it visits. */
+	private class Collector extends AstVisitor<Void, Void> {
+		final Set<Effect> effects = EnumSet.noneOf(Effect.class);
+
+		@Override
+		public Void assign(Assign ast, Void arg) {
+			Expr left = ast.left();
+			if (left instanceof Field || left instanceof Index) {
+				effects.add(Effect.WRITES_FIELDS);
+				access(left);
+				visitChildren(left, arg);
+			} else {
+				visit(left, arg);
+			}
+			return visit(ast.right(), arg);
+		}
+
+		@Override
+		public Void field(Field ast, Void arg) {
+			effects.add(Effect.READS_FIELDS);
+			access(ast);
+			return visitChildren(ast, arg);
+		}
+
+		@Override
+		public Void index(Index ast, Void arg) {
+			effects.add(Effect.READS_FIELDS);
+			access(ast);
+			return visitChildren(ast, arg);
+		}
+
+		/** Records whether accessing <code>ast</code> may fail. */
+		private void access(Expr ast) {
+			if (ast instanceof Index || !(((Field) ast).arg() instanceof ThisRef))
+				effects.add(Effect.MAY_TRAP);
+		}
+
+		@Override
+		public Void nullCheck(NullCheck ast, Void arg) {
+			if (!(ast.arg() instanceof ThisRef))
+				effects.add(Effect.MAY_TRAP);
+			return visitChildren(ast, arg);
+		}
+
+		@Override
+		public Void binaryOp(BinaryOp ast, Void arg) {
+			// Dividing by 0 traps, and so does dividing the smallest integer
+			// by -1.
+			if (ast.operator == BOp.B_DIV || ast.operator == BOp.B_MOD)
+				if (!(ast.right() instanceof IntConst) || ((IntConst) ast.right()).value == 0
+						|| ((IntConst) ast.right()).value == -1)
+					effects.add(Effect.MAY_TRAP);
+			return visitChildren(ast, arg);
+		}
+
+		@Override
+		public Void cast(Cast ast, Void arg) {
+			if (!ast.type.isSuperTypeOf(ast.arg().type))
+				effects.add(Effect.MAY_TRAP);
+			return visitChildren(ast, arg);
+		}
+
+		@Override
+		public Void newObject(NewObject ast, Void arg) {
+			effects.add(Effect.ALLOCATES);
+			return null;
+		}
+
+		@Override
+		public Void newArray(NewArray ast, Void arg) {
+			effects.add(Effect.ALLOCATES);
+			if (!(ast.arg() instanceof IntConst) || ((IntConst) ast.arg()).value < 0)
+				effects.add(Effect.MAY_TRAP);
+			return visitChildren(ast, arg);
+		}
+
+		@Override
+		public Void builtInRead(BuiltInRead ast, Void arg) {
+			effects.add(Effect.IO);
+			return null;
+		}
+
+		@Override
+		public Void builtInWrite(BuiltInWrite ast, Void arg) {
+			effects.add(Effect.IO);
+			return visitChildren(ast, arg);
+		}
+
+		@Override
+		public Void builtInWriteln(BuiltInWriteln ast, Void arg) {
+			effects.add(Effect.IO);
+			return null;
+		}
+
+		@Override
+		public Void methodCall(MethodCallExpr ast, Void arg) {
+			if (!(ast.receiver() instanceof ThisRef))
+				effects.add(Effect.MAY_TRAP);
+			// Callees are summarized first, and the methods of a recursive
+			// component start out with a summary.
+			for (MethodSymbol target : callGraph.targetsOf(ast))
+				effects.addAll(summaries.get(target));
+			return visitChildren(ast, arg);
+		}
+	}
+}
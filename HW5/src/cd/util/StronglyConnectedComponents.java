@@ -0,0 +1,106 @@
+package cd.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes the strongly connected components of a directed graph with
+ * Tarjan's algorithm. The traversal uses an explicit stack, so it is safe
+ * on deep graphs such as long chains of basic blocks.
+ */
+public class StronglyConnectedComponents {
+
+	/** Supplies the outgoing edges of a node. */
+	public interface Edges<N> {
+		Iterable<? extends N> of(N node);
+	}
+
+	/**
+	 * Returns the strongly connected components of the graph over
+	 * {@code nodes}, in reverse topological order: if there is an edge from
+	 * a node of component A to a node of component B, then B comes before A.
+	 * All edge targets must be contained in {@code nodes}.
+	 */
+	public static <N> List<List<N>> compute(List<? extends N> nodes, Edges<N> edges) {
+		List<List<N>> components = new ArrayList<List<N>>();
+		Map<N, Integer> index = new HashMap<N, Integer>();
+		Map<N, Integer> lowLink = new HashMap<N, Integer>();
+		Deque<N> stack = new ArrayDeque<N>();
+		Set<N> onStack = new HashSet<N>();
+
+		Deque<N> callNodes = new ArrayDeque<N>();
+		Deque<Iterator<? extends N>> callEdges = new ArrayDeque<Iterator<? extends N>>();
+
+		for (N root : nodes) {
+			if (index.containsKey(root))
+				continue;
+
+			index.put(root, index.size());
+			lowLink.put(root, index.get(root));
+			stack.push(root);
+			onStack.add(root);
+			callNodes.push(root);
+			callEdges.push(edges.of(root).iterator());
+
+			while (!callNodes.isEmpty()) {
+				N node = callNodes.peek();
+				Iterator<? extends N> it = callEdges.peek();
+				if (it.hasNext()) {
+					N succ = it.next();
+					if (!index.containsKey(succ)) {
+						index.put(succ, index.size());
+						lowLink.put(succ, index.get(succ));
+						stack.push(succ);
+						onStack.add(succ);
+						callNodes.push(succ);
+						callEdges.push(edges.of(succ).iterator());
+					} else if (onStack.contains(succ)) {
+						lowLink.put(node, Math.min(lowLink.get(node), index.get(succ)));
+					}
+					continue;
+				}
+
+				callNodes.pop();
+				callEdges.pop();
+
+				if (lowLink.get(node).equals(index.get(node))) {
+					List<N> component = new ArrayList<N>();
+					N member;
+					do {
+						member = stack.pop();
+						onStack.remove(member);
+						component.add(member);
+					} while (member != node);
+					components.add(component);
+				}
+
+				if (!callNodes.isEmpty()) {
+					N parent = callNodes.peek();
+					lowLink.put(parent, Math.min(lowLink.get(parent), lowLink.get(node)));
+				}
+			}
+		}
+		return components;
+	}
+
+	/**
+	 * Returns whether {@code component} contains a cycle, i.e. has more than
+	 * one node or a single node with an edge to itself.
+	 */
+	public static <N> boolean isCyclic(List<N> component, Edges<N> edges) {
+		if (component.size() > 1)
+			return true;
+		N node = component.get(0);
+		for (N succ : edges.of(node))
+			if (succ == node)
+				return true;
+		return false;
+	}
+}
@@ -19,6 +19,7 @@ import cd.ir.Ast.MethodDecl;
 import cd.ir.Ast.NewArray;
 import cd.ir.Ast.NewObject;
 import cd.ir.Ast.Nop;
+import cd.ir.Ast.NullCheck;
 import cd.ir.Ast.NullConst;
 import cd.ir.Ast.ReturnStmt;
 import cd.ir.Ast.Seq;
@@ -132,6 +133,11 @@ public class AstOneLine {
 			return "nop";
 		}
 
+		@Override
+		public String nullCheck(NullCheck ast, Void arg) {
+			return String.format("checkNull(%s)", str(ast.arg()));
+		}
+
 		@Override
 		public String nullConst(NullConst ast, Void arg) {
 			return "null";
@@ -12,6 +12,8 @@ import cd.ir.Ast.ClassDecl;
 import cd.ir.Ast.MethodDecl;
 import cd.ir.Ast.Stmt;
 import cd.ir.BasicBlock;
+import cd.transform.analysis.AnalysisDriver;
+import cd.transform.analysis.AnalysisResults;
 import cd.transform.analysis.NonNullAnalysis;
 
 /**
@@ -30,13 +32,14 @@ public class NonNullDump {
 	public static String toString(List<ClassDecl> astRoots) {
 		StringBuilder dump = new StringBuilder();
 		sort(astRoots, classComparator);
+		AnalysisResults results = new AnalysisDriver().run(astRoots, NonNullAnalysis.class, AnalysisDriver.NON_NULL);
 		for(ClassDecl clazz : astRoots) {
 			List<MethodDecl> methods = new ArrayList<>(clazz.methods());
 			sort(methods, methodComparator);
 			for(MethodDecl method : methods) {
 				dump.append(clazz.name).append(".").append(method.name).append("\n");
 				
-				NonNullAnalysis analysis = new NonNullAnalysis(method);
+				NonNullAnalysis analysis = results.get(method, NonNullAnalysis.class);
 				for(BasicBlock block : method.cfg.allBlocks) {
 					dump.append("  BB").append(block.index).append(" out: ")
 					    .append(sortedStrings(analysis.outStateOf(block))).append("\n");
@@ -11,6 +11,8 @@ import java.util.List;
 import cd.ir.Ast.ClassDecl;
 import cd.ir.Ast.MethodDecl;
 import cd.ir.BasicBlock;
+import cd.transform.analysis.AnalysisDriver;
+import cd.transform.analysis.AnalysisResults;
 import cd.transform.analysis.ReachingDefsAnalysis;
 
 /**
@@ -23,13 +25,14 @@ public class ReachingDefsDump {
 	public static String toString(List<ClassDecl> astRoots) {
 		StringBuilder dump = new StringBuilder();
 		sort(astRoots, classComparator);
+		AnalysisResults results = new AnalysisDriver().run(astRoots, ReachingDefsAnalysis.class, AnalysisDriver.REACHING_DEFS);
 		for(ClassDecl clazz : astRoots) {
 			List<MethodDecl> methods = new ArrayList<>(clazz.methods());
 			sort(methods, methodComparator);
 			for(MethodDecl method : methods) {
 				dump.append(clazz.name).append(".").append(method.name).append("\n");
 				
-				ReachingDefsAnalysis analysis = new ReachingDefsAnalysis(method.cfg);
+				ReachingDefsAnalysis analysis = results.get(method, ReachingDefsAnalysis.class);
 				for(BasicBlock block : method.cfg.allBlocks) {
 					dump.append("  BB").append(block.index).append(" out:\n");
 					for(String string : sortedStrings(analysis.outStateOf(block)))
@@ -1,6 +1,7 @@
 package cd;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -10,6 +11,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 
+import cd.transform.PassManager;
 import cd.util.FileUtil;
 
 @RunWith(Parameterized.class)
@@ -32,32 +34,46 @@ public class TestSamplePrograms extends AbstractTestAgainstFrozenReference {
 //	public static final File testDir = new File("javali_tests/HW1");
 	public static final File testDir = new File("javali_tests");
 	
-	@Parameters(name="{index}:{0}")
+	/**
+	 * Options passed to the compiler for every test, separated by white
+	 * space, e.g. {@code -freestanding}. Set with {@code ant test
+	 * -Dtest.options=...}.
+	 */
+	public static final String options = System.getProperty("cd.test.options", "");
+	
+	@Parameters(name="{index}:{0} -O{1}")
 	public static Collection<Object[]> testFiles() {
-		List<Object[]> result = new ArrayList<Object[]>();
+		List<File> files = new ArrayList<File>();
 		if (justFile != null)
-			result.add(new Object[] { justFile });
-		else if (testDir != null) {
-			for (File file : FileUtil.findJavaliFiles(testDir)) {
-				result.add(new Object[] { file });
-			}
-		} else {
-			for (File file : FileUtil.findJavaliFiles(new File("."))) {
-				result.add(new Object[] { file });
-			}
-		}
+			files.add(justFile);
+		else if (testDir != null)
+			files.addAll(FileUtil.findJavaliFiles(testDir));
+		else
+			files.addAll(FileUtil.findJavaliFiles(new File(".")));
+		
+		// Every program is compiled at every optimization level.
+		List<Object[]> result = new ArrayList<Object[]>();
+		for (File file : files)
+			for (int level = 0; level <= PassManager.MAX_LEVEL; level++)
+				result.add(new Object[] { file, level });
 		return result;
 	}
 
 	/**
 	 * @param file
 	 *            The javali file to test.
+	 * @param level
+	 *            The optimization level to compile it at.
 	 */
-	public TestSamplePrograms(File file) {
+	public TestSamplePrograms(File file, int level) throws IOException {
+		// Files generated at -O1 and above are named like X.javali.O1.s
+		String suffix = (level == 0 ? "" : ".O" + level);
 		this.file = file;
-		this.sfile = new File(file.getPath() + Config.ASMEXT);
-		this.binfile = new File(file.getPath() + Config.BINARYEXT);
+		this.sfile = new File(file.getPath() + suffix + Config.ASMEXT);
+		this.binfile = new File(file.getPath() + suffix + Config.BINARYEXT);
 		this.infile = new File(file.getPath() + ".in");
+		this.optionsfile = new File(file.getPath() + ".options");
+		this.expectedfile = new File(file.getPath() + ".exec.expected");
 		this.parserreffile = new File(file.getPath() + ".parser.ref");
 		this.semanticreffile = new File(file.getPath() + ".semantic.ref");
 		this.execreffile = new File(file.getPath() + ".exec.ref");
@@ -65,12 +81,21 @@ public class TestSamplePrograms extends AbstractTestAgainstFrozenReference {
 		this.rdreffile = new File(file.getPath() + ".rd.ref");
 		this.nnreffile = new File(file.getPath() + ".nn.ref");
 		this.optreffile = new File(file.getPath() + ".opt.ref");
-		this.errfile = new File(String.format("%s.err", file.getPath()));
+		this.errfile = new File(String.format("%s%s.err", file.getPath(), suffix));
 		this.main = new Main();
 		this.main.debug = new StringWriter();
 		
 		this.main.cfgdumpbase = file;
 		
+		parseOptions("-O" + level + " " + options);
+		if (optionsfile.exists())
+			parseOptions(FileUtil.read(optionsfile));
+	}
+	
+	private void parseOptions(String line) throws IOException {
+		for (String option : line.trim().split("\\s+"))
+			if (!option.isEmpty() && !main.parseOption(option))
+				throw new IllegalArgumentException("not an option: " + option);
 	}
 	
 }